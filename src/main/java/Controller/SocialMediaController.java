@@ -2,81 +2,264 @@ package Controller;
 
 import Model.Account;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.MessagePage;
+import DAO.MessageCursor;
 import Service.AccountService;
+import Service.MessageFeed;
 import Service.MessageService;
+import Service.SessionService;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import Util.JsonCodec;
+import Util.Metrics;
 import io.javalin.Javalin;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
-import java.util.List;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+import io.javalin.http.sse.SseClient;
+import io.javalin.http.sse.SseHandler;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPOutputStream;
 
 
 public class SocialMediaController {
 
+    /**
+     * Response header carrying the cursor for the next page of a paginated list.
+     */
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    /**
+     * Response header carrying the session token issued by /login. The login body stays the plain Account.
+     */
+    public static final String SESSION_TOKEN_HEADER = "X-Session-Token";
+
+    /**
+     * gzip level for response bodies, from 1 (fastest) to 9 (smallest); 0 turns compression off. On message pages
+     * level 1 gets most of the saving of level 6 for a fraction of the CPU (see Perf.CompressionBenchmark).
+     */
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("server.compression.level", 1);
+    /**
+     * Bodies shorter than this go out raw. Below about one packet, compressing saves no round trips and only costs
+     * CPU on both ends.
+     */
+    private static final int COMPRESSION_MIN_SIZE = Integer.getInteger("server.compression.minSize", 1500);
+
+    /**
+     * How long a /messages/stream connection may sit idle before it gets a comment line, which keeps proxies from
+     * timing it out and tells us when the client has gone.
+     */
+    private static final long STREAM_HEARTBEAT_SECONDS = Long.getLong("messages.stream.heartbeatSeconds", 15);
+
+    // error bodies never change, so they are serialized once up front
+    private static final byte[] INVALID_BODY =
+            JsonCodec.errorPayload("Invalid request body. Please provide a valid JSON object.");
+    private static final byte[] CREDENTIALS_REQUIRED =
+            JsonCodec.errorPayload("Both 'username' and 'password' fields are required.");
+    private static final byte[] PASSWORD_TOO_SHORT =
+            JsonCodec.errorPayload("Password must be at least 8 characters long.", 1);
+    private static final byte[] USERNAME_TAKEN = JsonCodec.errorPayload("Username already exists.");
+    private static final byte[] ACCOUNT_NOT_CREATED = JsonCodec.errorPayload("Failed to create user account.");
+    private static final byte[] INVALID_LOGIN = JsonCodec.errorPayload("Invalid username or password.");
+    private static final byte[] REQUEST_FAILED = JsonCodec.errorPayload("Failed to process request.");
+    private static final byte[] ACCOUNT_NOT_FOUND = JsonCodec.errorPayload("Account does not exist.");
+    private static final byte[] MESSAGE_TOO_LONG = JsonCodec.errorPayload("Message text is too long.");
+    private static final byte[] MESSAGE_BLANK = JsonCodec.errorPayload("Message text is blank.");
+    private static final byte[] MESSAGE_NOT_CREATED = JsonCodec.errorPayload("Failed to create message.");
+    private static final byte[] INVALID_REQUEST_DATA = JsonCodec.errorPayload("Invalid request data.");
+    private static final byte[] MESSAGES_NOT_READ = JsonCodec.errorPayload("Failed to read messages.");
+    private static final byte[] INVALID_BEFORE =
+            JsonCodec.errorPayload("before must be a time_posted_epoch or a cursor.");
+    private static final byte[] INVALID_RANGE_AFTER =
+            JsonCodec.errorPayload("With since or until, after must be a cursor from X-Next-Cursor.");
+    private static final byte[] RANGE_NOT_STREAMED =
+            JsonCodec.errorPayload("since and until cannot be combined with stream.");
+    private static final byte[] INVALID_POSTED_BY = JsonCodec.errorPayload("posted_by must be an account id.");
+    private static final byte[] EVENT_STREAM_REQUIRED =
+            JsonCodec.errorPayload("Send Accept: text/event-stream to open the message stream.");
+    private static final byte[] SEARCH_QUERY_REQUIRED = JsonCodec.errorPayload("Search query q is required.");
+    private static final byte[] MESSAGE_NOT_FOUND = JsonCodec.errorPayload("Message does not exist.");
+    private static final byte[] MESSAGE_TEXT_REQUIRED = JsonCodec.errorPayload("Message text is required.");
+    private static final byte[] MESSAGE_TEXT_TOO_LONG =
+            JsonCodec.errorPayload("Message text cannot be longer than 255 characters.");
+    private static final byte[] BATCH_INVALID =
+            JsonCodec.errorPayload("Request body must be a JSON array of messages.");
+    private static final byte[] BATCH_TOO_LARGE = JsonCodec.errorPayload(
+            "A batch can hold at most " + MessageService.MAX_BATCH_SIZE + " messages.");
+    private static final byte[] BATCH_NOT_CREATED = JsonCodec.errorPayload("Failed to create messages.");
+    private static final byte[] INVALID_SESSION = JsonCodec.errorPayload("Session is invalid or has expired.");
+    private static final byte[] SESSION_ACCOUNT_MISMATCH =
+            JsonCodec.errorPayload("posted_by must be the account of the session.");
+    private static final byte[] SERVER_BUSY = JsonCodec.errorPayload("Server is busy. Please try again later.");
+
     private final AccountService accountService;
     private final MessageService messageService;
-    private final ObjectMapper objectMapper;
+    private final SessionService sessionService;
+    private final JsonCodec jsonCodec;
+    private final Metrics metrics = Metrics.getInstance();
+    /**
+     * Set by startAPI when async mode is on, null otherwise.
+     */
+    private DatabaseExecutor databaseExecutor;
     
     public SocialMediaController() {
-        this.accountService = new AccountService();
-        this.messageService = new MessageService();
-        this.objectMapper = new ObjectMapper();
+        this(new AccountService(), new MessageService());
     }
 
     public SocialMediaController(AccountService accountService, MessageService messageService) {
+        this(accountService, messageService, new SessionService());
+    }
+
+    public SocialMediaController(AccountService accountService, MessageService messageService,
+                                 SessionService sessionService) {
         this.accountService = accountService;
         this.messageService = messageService;
-        this.objectMapper = new ObjectMapper();
+        this.sessionService = sessionService;
+        this.jsonCodec = JsonCodec.getInstance();
     }
 
+    /**
+     * Starts the API. Responses of at least server.compression.minSize bytes are gzipped for clients that accept it.
+     * With -Dserver.async=true every route that talks to the database runs on a dedicated
+     * {@link DatabaseExecutor} through context.future, so Jetty's request threads are never blocked on JDBC. The
+     * executor runs server.async.threads tasks at once (default db.pool.size, else 10) and lets server.async.queue more
+     * wait (default 200); anything past that is answered with 503 straight away.
+     */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(jsonCodec);
+            // Javalin calls this once the response is written, after any context.future has completed, so the time
+            // covers the whole request in every execution mode
+            config.requestLogger.http(this::recordRequest);
+            if (COMPRESSION_LEVEL > 0) {
+                // gzip only: Javalin's Brotli needs the native jvm-brotli library, which this project does not ship
+                CompressionStrategy compression = new CompressionStrategy(null, new Gzip(COMPRESSION_LEVEL));
+                compression.setMinSizeForCompression(COMPRESSION_MIN_SIZE);
+                config.compression.custom(compression);
+            } else {
+                config.compression.none();
+            }
+        });
+        app.before(context -> {
+            metrics.requestStarted();
+            if (COMPRESSION_LEVEL > 0) {
+                // the same URL is served gzipped or raw depending on this header, which shared caches must know
+                context.header(Header.VARY, Header.ACCEPT_ENCODING);
+            }
+        });
+
+        if (Boolean.getBoolean("server.async")) {
+            databaseExecutor = new DatabaseExecutor(
+                    Integer.getInteger("server.async.threads", Integer.getInteger("db.pool.size", 10)),
+                    Integer.getInteger("server.async.queue", 200));
+            DatabaseExecutor executor = databaseExecutor;
+            app.events(event -> event.serverStopped(executor::shutdown));
+        }
+        if (messageService.isWriteBehindEnabled()) {
+            // write out whatever is still queued before the process can exit
+            app.events(event -> event.serverStopped(messageService::shutdown));
+        }
+        // live feed connections would otherwise hold the server open until their next heartbeat
+        app.events(event -> event.serverStopping(messageService::closeSubscriptions));
 
         // creating new user
-        app.post("/register", this::registerHandler);
+        app.post("/register", offload(this::registerHandler));
 
         // user login
-        app.post("/login", this::loginHandler);
+        app.post("/login", offload(this::loginHandler));
+
+        // creating new message. with write-behind on, the handler only validates and queues, and waits through its own
+        // context.future, so it is not offloaded
+        app.post("/messages", messageService.isWriteBehindEnabled()
+                ? this::postMessageHandler : offload(this::postMessageHandler));
 
-        // creating new message
-        app.post("/messages", this::postMessageHandler);
+        // creating many messages in one transaction
+        app.post("/messages/batch", offload(this::postMessageBatchHandler));
 
         // get all messages
-        app.get("/messages", this::getAllMessagesHandler);
+        app.get("/messages", offload(this::getAllMessagesHandler));
+
+        // live feed of message changes as server-sent events; registered before /messages/{id} like search
+        app.get("/messages/stream", this::messageStreamHandler);
+
+        // word search, answered from memory so never offloaded; registered before /messages/{id} so "search" is not
+        // taken for an id
+        app.get("/messages/search", this::searchMessagesHandler);
 
         // getting a message by id
-        app.get("/messages/{id}", this::getMessageHandler);
+        app.get("/messages/{id}", offload(this::getMessageHandler));
 
-        app.get("/accounts/{id}/messages", this::getMessagesByAccountIdHandler);
+        app.get("/accounts/{id}/messages", offload(this::getMessagesByAccountIdHandler));
 
         // getting all posts by user
         //app.get("/users/{username}/messages", this::getUserMessageHandler);
 
         // update a message by id
-        app.patch("/messages/{id}", this::updateMessageHandler);
+        app.patch("/messages/{id}", offload(this::updateMessageHandler));
 
         // delete a message by id
-        app.delete("/messages/{id}", this::deleteMessageHandler);
+        app.delete("/messages/{id}", offload(this::deleteMessageHandler));
 
+        // connection pool counters, for sizing the pool under load
+        app.get("/admin/pool", this::getPoolStatsHandler);
+
+        // message read cache counters
+        app.get("/admin/cache", this::getCacheStatsHandler);
+
+        // latency histograms, status counts and pool gauges for Prometheus
+        app.get("/metrics", this::getMetricsHandler);
 
         return app;
     }
-    
+
+    /**
+     * In async mode, wraps handler so it runs on the database executor and the request thread is handed back to Jetty
+     * while it does. Otherwise handler is returned as it is.
+     */
+    private Handler offload(Handler handler) {
+        if (databaseExecutor == null) {
+            return handler;
+        }
+        DatabaseExecutor executor = databaseExecutor;
+        return context -> context.future(() -> {
+            try {
+                return executor.submit(() -> {
+                    handler.handle(context);
+                    return null;
+                });
+            } catch (RejectedExecutionException e) {
+                context.header(Header.RETRY_AFTER, "1");
+                sendJson(context, 503, SERVER_BUSY); // Service Unavailable
+                return CompletableFuture.completedFuture(null);
+            }
+        });
+    }
+
     public void registerHandler(Context context) {
-        ObjectMapper objectMapper = new ObjectMapper();
-    
-        String requestBody = context.body();
         Account inputAccount;
         try {
-            inputAccount = objectMapper.readValue(requestBody, Account.class);
+            inputAccount = jsonCodec.readAccount(context.bodyAsBytes());
         } catch (IOException e) {
-            context.status(400); // Bad request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Invalid request body. Please provide a valid JSON object.");
-            context.json(errorNode);
+            sendJson(context, 400, INVALID_BODY); // Bad request
             return;
         }
     
@@ -84,230 +267,676 @@ public class SocialMediaController {
         String password = inputAccount.getPassword();
     
         if (username == null || password == null || username.isEmpty() || password.isEmpty()) {
-            context.status(400); // Bad request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Both 'username' and 'password' fields are required.");
-            context.json(errorNode);
+            sendJson(context, 400, CREDENTIALS_REQUIRED); // Bad request
             return;
         }
     
         if (password.length() < 8) {
-            context.status(400); // Bad request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Password must be at least 8 characters long.");
-            errorNode.put("errorCode", 1);
-            context.json(errorNode);
+            sendJson(context, 400, PASSWORD_TOO_SHORT); // Bad request
             return;
         }
     
-        if (accountService.usernameExists(username)) {
-            context.status(400); // Bad request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Username already exists.");
-            context.json(errorNode);
+        // the unique constraint on username decides duplicates, so there is no separate check before the insert
+        Account account = new Account(username, password);
+        Account createdAccount;
+        try {
+            createdAccount = accountService.createAccount(account);
+        } catch (AccountService.DuplicateUsernameException e) {
+            sendJson(context, 400, USERNAME_TAKEN); // Bad request
             return;
         }
-    
-        Account account = new Account(username, password);
-        Account createdAccount = accountService.createAccount(account);
-    
+
         if (createdAccount != null) {
-            context.status(200); // OK
-            context.json(createdAccount);
+            sendJson(context, 200, jsonCodec.writeAccount(createdAccount)); // OK
         } else {
-            context.status(500); // Internal Server Error
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Failed to create user account.");
-            context.json(errorNode);
+            sendJson(context, 500, ACCOUNT_NOT_CREATED); // Internal Server Error
         }
     }    
     
     public void loginHandler(Context context) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode requestBody = objectMapper.readTree(context.body());
+            Account credentials = jsonCodec.readCredentials(context.bodyAsBytes());
     
-            String username = requestBody.get("username").asText();
-            String password = requestBody.get("password").asText();
+            String username = credentials.getUsername();
+            String password = credentials.getPassword();
     
             if (username == null || password == null || username.isEmpty() || password.isEmpty()) {
-                context.status(400); // Bad request
-                ObjectNode errorNode = objectMapper.createObjectNode();
-                errorNode.put("error", "Both 'username' and 'password' fields are required.");
-                context.json(errorNode);
+                sendJson(context, 400, CREDENTIALS_REQUIRED); // Bad request
                 return;
             }
     
             Account account = accountService.getAccountByUsernameAndPassword(username, password);
     
             if (account != null) {
-                context.status(200); // OK
-                context.header("Content-Type", "application/json");
-                context.json(account);
+                context.header(SESSION_TOKEN_HEADER, sessionService.createSession(account));
+                sendJson(context, 200, jsonCodec.writeAccount(account)); // OK
             } else {
-                context.status(401); // Unauthorized
-                context.result("{\"error\":\"Invalid username or password.\"}");
+                sendJson(context, 401, INVALID_LOGIN); // Unauthorized
             }
-        } catch (JsonProcessingException e) {
-            context.status(400); // Bad request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Invalid request body. Please provide a valid JSON object.");
-            context.json(errorNode);
+        } catch (IOException e) {
+            sendJson(context, 400, INVALID_BODY); // Bad request
         } catch (Exception e) {
-            context.status(500); // Internal Server Error
-            context.result("{\"error\":\"Failed to process request.\"}");
+            sendJson(context, 500, REQUEST_FAILED); // Internal Server Error
         }
     }
 
-    public void getAllMessagesHandler(Context context) {
-        List<Message> messages = messageService.getAllMessages();
-        context.status(200); // OK
-        context.header("Content-Type", "application/json");
-        context.json(messages);
+    public void getAllMessagesHandler(Context context) throws IOException {
+        String etag = listTag(context);
+        if (isNotModified(context, etag)) {
+            return;
+        }
+
+        if (isRangeRequested(context)) {
+            if (isStreamRequested(context)) {
+                sendJson(context, 400, RANGE_NOT_STREAMED); // Bad request
+                return;
+            }
+            // a time window is read oldest first off the time index, so its cursor is "time_posted_epoch:message_id"
+            int limit = context.queryParamAsClass("limit", Integer.class)
+                    .check(value -> value > 0, "limit must be positive")
+                    .getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+            long since = context.queryParamAsClass("since", Long.class).getOrDefault(Long.MIN_VALUE);
+            long until = context.queryParamAsClass("until", Long.class).getOrDefault(Long.MAX_VALUE);
+            long afterEpoch = Long.MIN_VALUE;
+            int afterId = 0;
+            String after = context.queryParam("after");
+            if (after != null) {
+                try {
+                    int separator = after.indexOf(':');
+                    afterEpoch = Long.parseLong(after.substring(0, separator));
+                    afterId = Integer.parseInt(after.substring(separator + 1));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    sendJson(context, 400, INVALID_RANGE_AFTER); // Bad request
+                    return;
+                }
+            }
+
+            MessagePage page = messageService.getMessagesBetweenPage(since, until, afterEpoch, afterId, limit);
+            if (page.hasNext()) {
+                context.header(NEXT_CURSOR_HEADER, page.getNext());
+            }
+            context.header(Header.ETAG, etagHeader(context, etag));
+            sendJson(context, 200, jsonCodec.writeMessages(page.getMessages())); // OK
+            return;
+        }
+
+        if (isStreamRequested(context)) {
+            int after = context.queryParamAsClass("after", Integer.class)
+                    .check(value -> value >= 0, "after must not be negative")
+                    .getOrDefault(0);
+            try (MessageCursor cursor = messageService.openMessagesCursor(after)) {
+                context.header(Header.ETAG, etagHeader(context, etag));
+                streamMessages(context, cursor);
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                sendJson(context, 500, MESSAGES_NOT_READ); // Internal Server Error
+            }
+            return;
+        }
+
+        // keyset pagination: the body stays a plain array and the cursor for the next page goes in a header
+        int limit = context.queryParamAsClass("limit", Integer.class)
+                .check(value -> value > 0, "limit must be positive")
+                .getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+        int after = context.queryParamAsClass("after", Integer.class)
+                .check(value -> value >= 0, "after must not be negative")
+                .getOrDefault(0);
+
+        MessagePage page = messageService.getMessagesPage(after, limit);
+        if (page.hasNext()) {
+            context.header(NEXT_CURSOR_HEADER, page.getNext());
+        }
+        context.header(Header.ETAG, etagHeader(context, etag));
+        sendJson(context, 200, jsonCodec.writeMessages(page.getMessages())); // OK
     }
 
     public void postMessageHandler(Context context) {
+        Integer sessionAccountId;
         try {
-            Message message = context.bodyAsClass(Message.class);
+            sessionAccountId = getSessionAccountId(context);
+        } catch (SessionService.InvalidSessionException e) {
+            sendJson(context, 401, INVALID_SESSION); // Unauthorized
+            return;
+        }
+
+        try {
+            Message message = jsonCodec.readMessage(context.bodyAsBytes());
     
             int postedBy = message.getPosted_by();
-            Account account = accountService.getAccountById(postedBy);
-    
-            if (account == null) {
-                context.status(400); // Bad request
-                context.header("Content-Type", "application/json");
-                context.result("{\"error\":\"Account does not exist.\"}");
+            if (sessionAccountId != null) {
+                // the session already proves the account exists, so there is no lookup
+                if (postedBy != sessionAccountId) {
+                    sendJson(context, 403, SESSION_ACCOUNT_MISMATCH); // Forbidden
+                    return;
+                }
+            } else if (!accountService.accountExists(postedBy)) {
+                sendJson(context, 400, ACCOUNT_NOT_FOUND); // Bad request
                 return;
             }
     
             // Check if message text is too long
             if (message.getMessage_text().length() > 255) {
-                context.status(400); // Bad request
-                context.header("Content-Type", "application/json");
-                context.result("{\"error\":\"Message text is too long.\"}");
+                sendJson(context, 400, MESSAGE_TOO_LONG); // Bad request
                 return;
             }
     
             // Check if message text is blank
             if (message.getMessage_text().isEmpty()) {
-                context.status(400); // Bad request
-                context.header("Content-Type", "application/json");
-                context.result("{\"error\":\"Message text is blank.\"}");
+                sendJson(context, 400, MESSAGE_BLANK); // Bad request
                 return;
             }
     
+            if (messageService.isWriteBehindEnabled()) {
+                // the post joins the next group commit, and the response goes out once that has committed
+                CompletableFuture<Message> pending;
+                try {
+                    pending = messageService.submitMessage(message);
+                } catch (RejectedExecutionException e) {
+                    context.header(Header.RETRY_AFTER, "1");
+                    sendJson(context, 503, SERVER_BUSY); // Service Unavailable
+                    return;
+                }
+                context.future(() -> pending.handle((createdMessage, failure) -> {
+                    if (failure instanceof CompletionException) {
+                        failure = failure.getCause();
+                    }
+                    if (failure instanceof MessageService.AccountNotFoundException) {
+                        sendJson(context, 400, ACCOUNT_NOT_FOUND); // Bad request
+                    } else if (failure != null || createdMessage == null) {
+                        sendJson(context, 500, MESSAGE_NOT_CREATED); // Internal Server Error
+                    } else {
+                        sendJson(context, 200, jsonCodec.writeMessage(createdMessage)); // OK
+                    }
+                    return null;
+                }));
+                return;
+            }
+
             // Create and save the message using the MessageService
-            Message createdMessage = messageService.createMessage(message);
+            Message createdMessage;
+            try {
+                createdMessage = messageService.createMessage(message);
+            } catch (MessageService.AccountNotFoundException e) {
+                sendJson(context, 400, ACCOUNT_NOT_FOUND); // Bad request
+                return;
+            }
     
             if (createdMessage != null) {
-                context.status(200); // OK
-                context.header("Content-Type", "application/json");
-                context.json(createdMessage);
+                sendJson(context, 200, jsonCodec.writeMessage(createdMessage)); // OK
             } else {
-                context.status(500); // Internal Server Error
-                context.result("{\"error\":\"Failed to create message.\"}");
+                sendJson(context, 500, MESSAGE_NOT_CREATED); // Internal Server Error
             }
         } catch (Exception e) {
-            context.status(400); // Bad request
-            context.header("Content-Type", "application/json");
-            context.result("{\"error\":\"Invalid request data.\"}");
+            sendJson(context, 400, INVALID_REQUEST_DATA); // Bad request
+        }
+    }
+
+    /**
+     * Validates every message in one pass, checking posted_by against the in-memory account ids (or the session,
+     * when the request carries one), then stores the valid ones with one batched INSERT. The response holds one result
+     * per message, in request order, with either the new message_id or the reason the message was rejected.
+     */
+    public void postMessageBatchHandler(Context context) {
+        Integer sessionAccountId;
+        try {
+            sessionAccountId = getSessionAccountId(context);
+        } catch (SessionService.InvalidSessionException e) {
+            sendJson(context, 401, INVALID_SESSION); // Unauthorized
+            return;
+        }
+
+        List<Message> messages;
+        try {
+            messages = jsonCodec.readMessages(context.bodyAsBytes());
+        } catch (IOException e) {
+            sendJson(context, 400, BATCH_INVALID); // Bad request
+            return;
+        }
+        if (messages == null) {
+            sendJson(context, 400, BATCH_INVALID); // Bad request
+            return;
+        }
+        if (messages.size() > MessageService.MAX_BATCH_SIZE) {
+            sendJson(context, 400, BATCH_TOO_LARGE); // Bad request
+            return;
+        }
+
+        MessageBatchResult[] results = new MessageBatchResult[messages.size()];
+        List<Message> accepted = new ArrayList<>(messages.size());
+        List<Integer> acceptedIndexes = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message == null) {
+                results[i] = MessageBatchResult.rejected(i, "Message is missing.");
+            } else if (sessionAccountId != null && message.getPosted_by() != sessionAccountId) {
+                // with a session only its own account may post
+                results[i] = MessageBatchResult.rejected(i, "posted_by must be the account of the session.");
+            } else if (sessionAccountId == null && !accountService.accountExists(message.getPosted_by())) {
+                results[i] = MessageBatchResult.rejected(i, "Account does not exist.");
+            } else if (message.getMessage_text() == null || message.getMessage_text().isBlank()) {
+                results[i] = MessageBatchResult.rejected(i, "Message text is blank.");
+            } else if (message.getMessage_text().length() > 255) {
+                results[i] = MessageBatchResult.rejected(i, "Message text is too long.");
+            } else {
+                accepted.add(message);
+                acceptedIndexes.add(i);
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            List<Message> createdMessages;
+            try {
+                createdMessages = messageService.createMessages(accepted);
+            } catch (MessageService.AccountNotFoundException e) {
+                sendJson(context, 400, ACCOUNT_NOT_FOUND); // Bad request
+                return;
+            }
+            if (createdMessages == null) {
+                sendJson(context, 500, BATCH_NOT_CREATED); // Internal Server Error
+                return;
+            }
+            for (int i = 0; i < createdMessages.size(); i++) {
+                int index = acceptedIndexes.get(i);
+                results[index] = MessageBatchResult.created(index, createdMessages.get(i).getMessage_id());
+            }
+        }
+        sendJson(context, 200, jsonCodec.writeValue(results)); // OK
+    }
+
+    /**
+     * Word search over message_text. Every word in q must appear in a message for it to match, ignoring case and
+     * punctuation. Results are newest first and paginated like /accounts/{id}/messages: the cursor for the next page
+     * goes in a header and is passed back as before.
+     */
+    public void searchMessagesHandler(Context context) {
+        String etag = listTag(context);
+        if (isNotModified(context, etag)) {
+            return;
+        }
+        String query = context.queryParam("q");
+        if (query == null || query.isBlank()) {
+            sendJson(context, 400, SEARCH_QUERY_REQUIRED); // Bad request
+            return;
+        }
+        int limit = context.queryParamAsClass("limit", Integer.class)
+                .check(value -> value > 0, "limit must be positive")
+                .getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+        long[] before;
+        try {
+            before = parseBefore(context.queryParam("before"));
+        } catch (NumberFormatException e) {
+            sendJson(context, 400, INVALID_BEFORE); // Bad request
+            return;
+        }
+
+        MessagePage page = messageService.searchMessages(query, before[0], (int) before[1], limit);
+        if (page.hasNext()) {
+            context.header(NEXT_CURSOR_HEADER, page.getNext());
+        }
+        context.header(Header.ETAG, etagHeader(context, etag));
+        sendJson(context, 200, jsonCodec.writeMessages(page.getMessages())); // OK
+    }
+
+    /**
+     * Server-sent events for every message created, updated or deleted from now on, optionally only those posted by
+     * one account. Each event is named created, updated or deleted, carries the message as its data and the change
+     * count as its id. A client that falls more than messages.stream.buffer events behind is disconnected, and should
+     * reconnect and catch up through the regular read endpoints.
+     */
+    public void messageStreamHandler(Context context) throws Exception {
+        Integer postedBy = null;
+        String postedByParam = context.queryParam("posted_by");
+        if (postedByParam != null) {
+            try {
+                postedBy = Integer.parseInt(postedByParam);
+            } catch (NumberFormatException e) {
+                sendJson(context, 400, INVALID_POSTED_BY); // Bad request
+                return;
+            }
+        }
+        if (!"text/event-stream".equals(context.header(Header.ACCEPT))) {
+            // Javalin's SseHandler only answers exactly this Accept header, as browsers' EventSource sends it
+            sendJson(context, 406, EVENT_STREAM_REQUIRED); // Not Acceptable
+            return;
+        }
+        Integer filter = postedBy;
+        // validated before the event stream starts, since after that the status line has already gone out
+        new SseHandler(client -> streamEvents(client, filter)).handle(context);
+    }
+
+    /**
+     * Runs on Javalin's async pool for as long as the client stays connected, copying its subscription to it.
+     */
+    private void streamEvents(SseClient client, Integer postedBy) {
+        client.keepAlive();
+        try (MessageFeed.Subscription subscription = messageService.subscribe(postedBy)) {
+            client.onClose(subscription::close);
+            while (!subscription.isClosed()) {
+                MessageFeed.Event event = subscription.next(STREAM_HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                if (event != null) {
+                    client.sendEvent(event.getType().getEventName(),
+                            new ByteArrayInputStream(jsonCodec.writeMessage(event.getMessage())),
+                            String.valueOf(event.getSequence()));
+                } else if (!subscription.isClosed()) {
+                    // a write to a client that has gone fails, which closes the client and, through onClose, this loop
+                    client.sendComment("heartbeat");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            client.close();
         }
     }
 
     public void getMessageHandler(Context context) {
         int messageId = Integer.parseInt(context.pathParam("id"));
+        // the version is read before the message, so the tag can only be older than the body it goes out with
+        String etag = "\"" + Long.toHexString(messageService.getInstanceId()) + "-m" + messageId + "-"
+                + messageService.getMessageVersion(messageId) + "\"";
+        if (isNotModified(context, etag, () -> messageExists(messageId))) {
+            return;
+        }
         Message message;
     
         try {
             message = messageService.getMessageById(messageId);
-            context.header("Content-Type", "application/json");
-            context.json(message);
+            context.header(Header.ETAG, etagHeader(context, etag));
+            sendJson(context, 200, jsonCodec.writeMessage(message)); // OK
         } catch (MessageService.MessageNotFoundException e) {
+            if (isAnyTagRequested(context)) {
+                // "*" asks for whatever the server holds, and it holds nothing under this id
+                context.status(404); // Not Found
+                context.result("");
+                return;
+            }
+            context.header(Header.ETAG, etagHeader(context, etag));
             context.status(200); // OK
             context.result(""); // Empty body
         }
     }    
 
-    public void getMessagesByAccountIdHandler(Context context) {
+    public void getMessagesByAccountIdHandler(Context context) throws IOException {
         int accountId = Integer.parseInt(context.pathParam("id"));
-    
-        List<Message> messages = messageService.getMessagesByUserId(accountId);
-    
-        if (messages != null) {
-            context.status(200); // OK
-            context.header("Content-Type", "application/json");
-            context.json(messages);
-        } else {
-            context.status(404); // Not Found
-            context.result("{\"error\":\"No messages found for this account.\"}");
+        String etag = listTag(context);
+        if (isNotModified(context, etag)) {
+            return;
         }
-    }
-    
-    public void deleteMessageHandler(Context context) {
-        int messageId = Integer.parseInt(context.pathParam("id"));
-        Message message = null;
-    
+
+        if (isStreamRequested(context)) {
+            if (isRangeRequested(context)) {
+                sendJson(context, 400, RANGE_NOT_STREAMED); // Bad request
+                return;
+            }
+            try (MessageCursor cursor = messageService.openMessagesByUserIdCursor(accountId)) {
+                context.header(Header.ETAG, etagHeader(context, etag));
+                streamMessages(context, cursor);
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                sendJson(context, 500, MESSAGES_NOT_READ); // Internal Server Error
+            }
+            return;
+        }
+
+        // newest first; the cursor is "time_posted_epoch:message_id" of the last message on the previous page, and a
+        // bare time_posted_epoch means "everything posted before this time"
+        int limit = context.queryParamAsClass("limit", Integer.class)
+                .check(value -> value > 0, "limit must be positive")
+                .getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+        long[] before;
         try {
-            message = messageService.getMessageById(messageId);
-        } catch (MessageService.MessageNotFoundException e) {
-            context.status(200); // OK
-            context.result(""); // empty body
+            before = parseBefore(context.queryParam("before"));
+        } catch (NumberFormatException e) {
+            sendJson(context, 400, INVALID_BEFORE); // Bad request
             return;
         }
+
+        // since is inclusive and until exclusive; until is the same bound as a bare before time
+        long since = context.queryParamAsClass("since", Long.class).getOrDefault(Long.MIN_VALUE);
+        long until = context.queryParamAsClass("until", Long.class).getOrDefault(Long.MAX_VALUE);
+        if (context.queryParam("until") != null && until <= before[0]) {
+            before = new long[] {until, 0};
+        }
+
+        MessagePage page = messageService.getMessagesByUserIdPage(accountId, since, before[0], (int) before[1],
+                limit);
+        if (page.hasNext()) {
+            context.header(NEXT_CURSOR_HEADER, page.getNext());
+        }
+        context.header(Header.ETAG, etagHeader(context, etag));
+        sendJson(context, 200, jsonCodec.writeMessages(page.getMessages())); // OK
+    }
     
+    public void deleteMessageHandler(Context context) {
+        int messageId = Integer.parseInt(context.pathParam("id"));
+
+        // one DELETE returns the removed row, so there is no lookup beforehand
         Message deletedMessage = messageService.deleteMessage(messageId);
     
         if (deletedMessage != null) {
-            context.status(200); // OK
-            context.header("Content-Type", "application/json");
-            context.json(deletedMessage);
+            sendJson(context, 200, jsonCodec.writeMessage(deletedMessage)); // OK
         } else {
-            context.status(500); // Internal Server Error
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Failed to delete message.");
-            context.json(errorNode);
+            context.status(200); // OK
+            context.result(""); // empty body
         }
     }    
     
-    public void updateMessageHandler(Context context) throws JsonProcessingException {
+    public void updateMessageHandler(Context context) throws IOException {
         int messageId = Integer.parseInt(context.pathParam("id"));
-        Message existingMessage;
-    
-        try {
-            existingMessage = messageService.getMessageById(messageId);
-        } catch (MessageService.MessageNotFoundException e) {
-            context.status(400); // Bad Request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Message with id " + messageId + " does not exist.");
-            context.json(errorNode);
-            return;
-        }
-    
-        JsonNode requestBody = context.bodyAsClass(JsonNode.class);
-        if (requestBody.get("message_text") == null || requestBody.get("message_text").asText().isEmpty()) {
-            context.status(400); // Bad Request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Message text is required.");
-            context.json(errorNode);
+
+        // validate the body first, since it costs nothing, then make the single UPDATE that returns the new row
+        JsonNode requestBody = jsonCodec.readTree(context.bodyAsBytes());
+        if (requestBody == null || requestBody.get("message_text") == null
+                || requestBody.get("message_text").asText().isEmpty()) {
+            sendJson(context, 400, MESSAGE_TEXT_REQUIRED); // Bad Request
         } else if (requestBody.get("message_text").asText().length() > 255) {
-            context.status(400); // Bad Request
-            ObjectNode errorNode = objectMapper.createObjectNode();
-            errorNode.put("error", "Message text cannot be longer than 255 characters.");
-            context.json(errorNode);
+            sendJson(context, 400, MESSAGE_TEXT_TOO_LONG); // Bad Request
         } else {
-            existingMessage.setMessage_text(requestBody.get("message_text").asText());
-            boolean updated = messageService.updateMessage(existingMessage);
-            if (updated) {
-                context.status(200); // OK
-                context.header("Content-Type", "application/json");
-                context.json(existingMessage);
+            Message updatedMessage = messageService.updateMessageText(messageId,
+                    requestBody.get("message_text").asText());
+            if (updatedMessage != null) {
+                sendJson(context, 200, jsonCodec.writeMessage(updatedMessage)); // OK
             } else {
-                context.status(500); // Internal Server Error
-                ObjectNode errorNode = objectMapper.createObjectNode();
-                errorNode.put("error", "Failed to update message.");
-                context.json(errorNode);
+                sendJson(context, 400, MESSAGE_NOT_FOUND); // Bad Request
             }
         }
     }    
     
-}
\ No newline at end of file
+    public void getPoolStatsHandler(Context context) {
+        context.status(200); // OK
+        context.json(ConnectionUtil.getPoolStats());
+    }
+
+    public void getCacheStatsHandler(Context context) {
+        CacheStats stats = messageService.getCacheStats();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("size", messageService.getCacheSize());
+        body.put("hitCount", stats.hitCount());
+        body.put("missCount", stats.missCount());
+        body.put("hitRate", stats.hitRate());
+        body.put("evictionCount", stats.evictionCount());
+        context.status(200); // OK
+        context.json(body);
+    }
+
+    public void getMetricsHandler(Context context) {
+        context.status(200); // OK
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        context.result(metrics.scrape());
+    }
+
+    private void recordRequest(Context context, Float executionTimeMs) {
+        // a request that matched no route never gets past the before handlers, and has no endpoint path to ask for
+        String route = context.handlerType() == HandlerType.BEFORE ? "unmatched" : context.endpointHandlerPath();
+        metrics.requestFinished(context.method().name(), route, context.statusCode(),
+                (long) (executionTimeMs * 1_000_000));
+    }
+
+    /**
+     * Sends an already serialized JSON body, skipping the String round trip context.json would make.
+     */
+    private static void sendJson(Context context, int status, byte[] json) {
+        context.status(status);
+        context.contentType(ContentType.APPLICATION_JSON);
+        context.result(json);
+    }
+
+    /**
+     * @return the account of the bearer token on the request, or null if the request carries no token
+     * @throws SessionService.InvalidSessionException if there is a token but it is not a live session
+     */
+    private Integer getSessionAccountId(Context context) throws SessionService.InvalidSessionException {
+        String authorization = context.header(Header.AUTHORIZATION);
+        if (authorization == null) {
+            return null;
+        }
+        if (!authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            throw new SessionService.InvalidSessionException("Authorization must be a Bearer token.");
+        }
+        return sessionService.getSession(authorization.substring(7).trim()).getAccountId();
+    }
+
+    /**
+     * Reads a newest-first cursor: "time_posted_epoch:message_id" of the last message already seen, or a bare
+     * time_posted_epoch meaning "everything posted before this time".
+     * @return {beforeEpoch, beforeId}, or the start of the list if before is null
+     * @throws NumberFormatException if before is neither form
+     */
+    private static long[] parseBefore(String before) throws NumberFormatException {
+        if (before == null) {
+            return new long[] {Long.MAX_VALUE, Integer.MAX_VALUE};
+        }
+        int separator = before.indexOf(':');
+        if (separator < 0) {
+            return new long[] {Long.parseLong(before), 0};
+        }
+        return new long[] {Long.parseLong(before.substring(0, separator)),
+                Integer.parseInt(before.substring(separator + 1))};
+    }
+
+    /**
+     * Strong ETag for a list response: the table's change count when the request arrived, plus a hash of the path
+     * and query string, since each distinct query is a different representation. It must be computed before the
+     * list is read, so the tag can only be older than the body it goes out with.
+     */
+    private String listTag(Context context) {
+        long hash = 0xcbf29ce484222325L;
+        String target = context.queryString() == null ? context.path() : context.path() + "?" + context.queryString();
+        for (int i = 0; i < target.length(); i++) {
+            hash = (hash ^ target.charAt(i)) * 0x100000001b3L; // FNV-1a
+        }
+        return "\"" + Long.toHexString(messageService.getInstanceId()) + "-l" + messageService.getChangeCount() + "-"
+                + Long.toHexString(hash) + "\"";
+    }
+
+    /**
+     * Answers 304 when the client already holds etag, without reading or serializing anything. For a list, which
+     * always exists, "*" matches too.
+     * @return true if the 304 has been sent and the handler should stop
+     */
+    private static boolean isNotModified(Context context, String etag) {
+        return isNotModified(context, etag, () -> true);
+    }
+
+    /**
+     * @param exists asked only when the client sent "*", which matches only a representation that exists (RFC 9110)
+     */
+    private static boolean isNotModified(Context context, String etag, BooleanSupplier exists) {
+        String ifNoneMatch = context.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || (candidate.equals("*") && exists.getAsBoolean())) {
+                context.header(Header.ETAG, etagHeader(context, etag));
+                context.status(304); // Not Modified
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAnyTagRequested(Context context) {
+        String ifNoneMatch = context.header(Header.IF_NONE_MATCH);
+        return ifNoneMatch != null && ifNoneMatch.trim().equals("*");
+    }
+
+    private boolean messageExists(int messageId) {
+        try {
+            messageService.getMessageById(messageId);
+            return true;
+        } catch (MessageService.MessageNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The tags are strong, but the same message goes out gzipped or raw depending on Accept-Encoding, and a strong tag
+     * promises byte-for-byte identical bodies. So to a client that may get the gzipped body the tag is sent weak,
+     * which still works for If-None-Match, whose comparison ignores the W/ prefix.
+     */
+    private static String etagHeader(Context context, String etag) {
+        String acceptEncoding = context.header(Header.ACCEPT_ENCODING);
+        if (COMPRESSION_LEVEL > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return "W/" + etag;
+        }
+        return etag;
+    }
+
+    private boolean isRangeRequested(Context context) {
+        return context.queryParam("since") != null || context.queryParam("until") != null;
+    }
+
+    private boolean isStreamRequested(Context context) {
+        return "true".equalsIgnoreCase(context.queryParam("stream"));
+    }
+
+    /**
+     * Javalin's compressed stream decides whether to compress on each write by its size, so a stream whose first
+     * write is small would switch to gzip part way through, after the headers have gone out. A streamed response has
+     * no size up front, so it is gzipped whenever the client accepts it, decided before the first byte.
+     */
+    private static OutputStream openStreamingOutput(Context context) throws IOException {
+        OutputStream raw = context.res().getOutputStream();
+        String acceptEncoding = context.header(Header.ACCEPT_ENCODING);
+        if (COMPRESSION_LEVEL <= 0 || acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            return raw;
+        }
+        context.header(Header.CONTENT_ENCODING, "gzip");
+        // sync flush, so every flush of the generator still pushes what it has to the client
+        return new GZIPOutputStream(raw, 8192, true) {
+            {
+                def.setLevel(COMPRESSION_LEVEL);
+            }
+        };
+    }
+
+    /**
+     * Writes the cursor to the response as a JSON array one element at a time, so memory use does not grow with the
+     * size of the result and the first bytes go out before the last row has been read.
+     */
+    private void streamMessages(Context context, MessageCursor cursor) throws IOException {
+        context.status(200); // OK
+        context.contentType("application/json");
+        try (JsonGenerator generator = jsonCodec.createGenerator(openStreamingOutput(context))) {
+            generator.writeStartArray();
+            generator.flush();
+            try {
+                Message message;
+                while ((message = cursor.next()) != null) {
+                    jsonCodec.writeMessage(generator, message);
+                }
+                generator.writeEndArray();
+            } catch (SQLException e) {
+                // the status has already gone out, so leave the array unterminated to show the export was cut short
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+}
@@ -1,7 +1,10 @@
 package DAO;
 
 import Model.Account;
+import Util.ConcurrentIntBitmap;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -9,99 +12,240 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
-public class AccountDAO {
-    private final Connection connection;
+/**
+ * The account store backed by the H2 account table.
+ */
+public class AccountDAO implements AccountStore {
+
+    /**
+     * SQLSTATE H2 reports when an insert would break a unique constraint.
+     */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    // per-method latency, exported on /metrics
+    private static final LatencyHistogram CREATE_ACCOUNT_TIMER = timer("createAccount");
+    private static final LatencyHistogram USERNAME_EXISTS_TIMER = timer("usernameExists");
+    private static final LatencyHistogram FOR_EACH_USERNAME_TIMER = timer("forEachUsername");
+    private static final LatencyHistogram GET_ACCOUNT_BY_ID_TIMER = timer("getAccountById");
+    private static final LatencyHistogram GET_ACCOUNT_BY_USERNAME_TIMER = timer("getAccountByUsername");
+    private static final LatencyHistogram ACCOUNT_EXISTS_TIMER = timer("accountExists");
+    private static final LatencyHistogram GET_ALL_ACCOUNTS_TIMER = timer("getAllAccounts");
+
+    private static LatencyHistogram timer(String method) {
+        return Metrics.getInstance().daoTimer("AccountDAO." + method);
+    }
+
+    /**
+     * Every account id known to this DAO, loaded when it is created and kept up to date by createAccount. Accounts
+     * are never deleted, so an id found here is known to exist.
+     */
+    private final ConcurrentIntBitmap accountIds = new ConcurrentIntBitmap();
 
     public AccountDAO() {
-        this.connection = ConnectionUtil.getConnection();
+        String query = "SELECT account_id FROM account";
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                accountIds.add(rs.getInt(1));
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
     }
 
+    /**
+     * The unique constraint on account.username is what decides whether the name is taken, so there is no window
+     * between checking for the name and inserting it.
+     */
+    @Override
     public Account createAccount(Account account) {
-        String insertQuery = "INSERT INTO account (username, password) VALUES (?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(insertQuery, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            statement.setString(1, account.getUsername());
-            statement.setString(2, account.getPassword());
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected == 0) {
+        long start = System.nanoTime();
+        try {
+            String insertQuery = "INSERT INTO account (username, password) VALUES (?, ?)";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(insertQuery, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                statement.setString(1, account.getUsername());
+                statement.setString(2, account.getPassword());
+                int rowsAffected = statement.executeUpdate();
+                if (rowsAffected == 0) {
+                    return null;
+                }
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        int accountId = generatedKeys.getInt(1);
+                        account.setAccount_id(accountId);
+                        accountIds.add(accountId);
+                        return account;
+                    } else {
+                        throw new SQLException("Creating account failed, no ID obtained.");
+                    }
+                }
+            } catch (SQLException e) {
+                if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                    throw new DuplicateUsernameException("Username already exists: " + account.getUsername());
+                }
+                System.err.println(e.getMessage());
                 return null;
             }
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int accountId = generatedKeys.getInt(1);
-                    account.setAccount_id(accountId);
-                    return account;
-                } else {
-                    throw new SQLException("Creating account failed, no ID obtained.");
+        } finally {
+            CREATE_ACCOUNT_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean usernameExists(String username) {
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT 1 FROM account WHERE username = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setString(1, username);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next();
                 }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                return false;
             }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            return null;
+        } finally {
+            USERNAME_EXISTS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> consumer) {
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT username FROM account";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query);
+                 ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString("username"));
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        } finally {
+            FOR_EACH_USERNAME_TIMER.recordSince(start);
         }
     }
     
+    @Override
     public Account getAccountById(int id) {
-        String query = "SELECT * FROM account WHERE account_id = ?";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setInt(1, id);
-            try (ResultSet rs = statement.executeQuery()) {
-                if (rs.next()) {
-                    String username = rs.getString("username");
-                    String password = rs.getString("password");
-                    Account account = new Account(username, password);
-                    account.setAccount_id(id);
-                    return account;
-                } else {
-                    return null;
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM account WHERE account_id = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setInt(1, id);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        String username = rs.getString("username");
+                        String password = rs.getString("password");
+                        Account account = new Account(username, password);
+                        account.setAccount_id(id);
+                        return account;
+                    } else {
+                        return null;
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                return null;
             }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            return null;
+        } finally {
+            GET_ACCOUNT_BY_ID_TIMER.recordSince(start);
         }
     }
     
+    @Override
     public Account getAccountByUsername(String username) {
-        String query = "SELECT * FROM account WHERE username = ?";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, username);
-            try (ResultSet rs = statement.executeQuery()) {
-                if (rs.next()) {
-                    int accountId = rs.getInt("account_id");
-                    String password = rs.getString("password");
-                    Account account = new Account(username, password);
-                    account.setAccount_id(accountId);
-                    return account;
-                } else {
-                    return null;
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM account WHERE username = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setString(1, username);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        int accountId = rs.getInt("account_id");
+                        String password = rs.getString("password");
+                        Account account = new Account(username, password);
+                        account.setAccount_id(accountId);
+                        return account;
+                    } else {
+                        return null;
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                return null;
             }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            return null;
+        } finally {
+            GET_ACCOUNT_BY_USERNAME_TIMER.recordSince(start);
         }
-    }    
+    }
 
-    // Add this method to your AccountDAO class
+    /**
+     * Answers from memory for every account created before this DAO was, or through it. Any other id is checked
+     * with a primary key lookup, so an account created by another DAO instance is still found, and remembered.
+     */
+    @Override
+    public boolean accountExists(int accountId) {
+        long start = System.nanoTime();
+        try {
+            if (accountIds.contains(accountId)) {
+                return true;
+            }
+            String query = "SELECT 1 FROM account WHERE account_id = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setInt(1, accountId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    if (rs.next()) {
+                        accountIds.add(accountId);
+                        return true;
+                    }
+                    return false;
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                return false;
+            }
+        } finally {
+            ACCOUNT_EXISTS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
     public List<Account> getAllAccounts() {
-        List<Account> accounts = new ArrayList<>();
-        String query = "SELECT * FROM account";
+        long start = System.nanoTime();
+        try {
+            List<Account> accounts = new ArrayList<>();
+            String query = "SELECT * FROM account";
     
-        try (PreparedStatement statement = connection.prepareStatement(query);
-            ResultSet rs = statement.executeQuery()) {
-            while (rs.next()) {
-                int accountId = rs.getInt("account_id");
-                String username = rs.getString("username");
-                String password = rs.getString("password");
-                Account account = new Account(username, password);
-                account.setAccount_id(accountId);
-                accounts.add(account);
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query);
+                 ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    int accountId = rs.getInt("account_id");
+                    String username = rs.getString("username");
+                    String password = rs.getString("password");
+                    Account account = new Account(username, password);
+                    account.setAccount_id(accountId);
+                    accounts.add(account);
+                }
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
             }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-        }
     
-        return accounts;
+            return accounts;
+        } finally {
+            GET_ALL_ACCOUNTS_TIMER.recordSince(start);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package DAO;
+
+import Model.Account;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Where accounts are kept. AccountDAO is the only implementation today; accounts stay in H2 whichever message store
+ * {@link StorageEngine} picks, since they are few and read far less often than messages.
+ */
+public interface AccountStore {
+
+    /**
+     * Thrown by createAccount when the username is already taken.
+     */
+    class DuplicateUsernameException extends RuntimeException {
+        public DuplicateUsernameException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return the account with its generated account_id set, or null if it could not be stored
+     * @throws DuplicateUsernameException if the username is already taken
+     */
+    Account createAccount(Account account);
+
+    boolean usernameExists(String username);
+
+    /**
+     * Calls consumer with every username, without building a list of them first.
+     */
+    void forEachUsername(Consumer<String> consumer);
+
+    /**
+     * @return the account, or null if there is none with that id
+     */
+    Account getAccountById(int id);
+
+    /**
+     * @return the account, or null if there is none with that username
+     */
+    Account getAccountByUsername(String username);
+
+    boolean accountExists(int accountId);
+
+    List<Account> getAllAccounts();
+}
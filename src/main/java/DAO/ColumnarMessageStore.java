@@ -0,0 +1,349 @@
+package DAO;
+
+import Model.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A message store that answers every read from memory. Each message lives in a slot across primitive column arrays:
+ * the keys in a {@link MessageIndex}, which also serves the ordered pages, and the text here as UTF-8 bytes packed into
+ * one shared arena. So a million messages are a handful of arrays rather than a million objects, and only the
+ * messages on a page are turned into objects.
+ *
+ * Writes go through to the backing store first, which assigns ids, enforces the account foreign key and keeps the data
+ * across restarts, and are then applied to the columns. Writes are serialized so the columns always end up in the same
+ * state as the backing store; reads only wait for the brief in-memory part of a write. Everything in the backing store
+ * is loaded when the store is created, so it must not be written to by anyone else while this store is in use.
+ */
+public class ColumnarMessageStore implements MessageStore {
+
+    private final MessageStore backing;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Held across the backing store call and the column update of every write.
+     */
+    private final Object writeOrder = new Object();
+
+    private final MessageIndex index = new MessageIndex();
+    // the text columns, indexed by the same slots as the index
+    private int[] textOffsets = new int[index.getSlotCapacity()];
+    /**
+     * Length of the text in bytes, or -1 for a null text.
+     */
+    private int[] textLengths = new int[index.getSlotCapacity()];
+
+    private byte[] arena = new byte[64 * 1024];
+    private int arenaUsed;
+    /**
+     * Bytes in the arena no longer referenced by any slot, reclaimed by compactArena.
+     */
+    private int arenaGarbage;
+
+    /**
+     * Loads every message the backing store holds.
+     * @throws SQLException if the backing store could not be read
+     */
+    public ColumnarMessageStore(MessageStore backing) throws SQLException {
+        this.backing = backing;
+        lock.writeLock().lock();
+        try (MessageCursor cursor = backing.openMessagesCursor(0)) {
+            Message message;
+            while ((message = cursor.next()) != null) {
+                addRow(message);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        synchronized (writeOrder) {
+            Message createdMessage = backing.createMessage(message);
+            if (createdMessage != null) {
+                lock.writeLock().lock();
+                try {
+                    addRow(createdMessage);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return createdMessage;
+        }
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        synchronized (writeOrder) {
+            List<Message> createdMessages = backing.createMessages(messages);
+            if (createdMessages != null) {
+                lock.writeLock().lock();
+                try {
+                    for (Message createdMessage : createdMessages) {
+                        addRow(createdMessage);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return createdMessages;
+        }
+    }
+
+    @Override
+    public Message getMessageById(int id) {
+        lock.readLock().lock();
+        try {
+            int slot = index.getSlot(id);
+            return slot < 0 ? null : readRow(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the account's messages oldest first
+     */
+    @Override
+    public List<Message> getMessagesByUserId(int userId) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsByAccountAfter(userId, Long.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByUserIdBefore(int userId, long sinceEpoch, long beforeEpoch, int beforeId,
+                                                   int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsByAccountBefore(userId, sinceEpoch, beforeEpoch, beforeId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return getMessagesAfter(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsAfter(afterId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesBetween(long sinceEpoch, long untilEpoch, long afterEpoch, int afterId,
+                                            int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsBetween(sinceEpoch, untilEpoch, afterEpoch, afterId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public MessageCursor openMessagesCursor(int afterId) {
+        return new PagedMessageCursor((afterEpoch, lastId, limit) -> getMessagesAfter(lastId, limit), afterId);
+    }
+
+    /**
+     * The cursor returns the account's messages oldest first.
+     */
+    @Override
+    public MessageCursor openMessagesByUserIdCursor(int userId) {
+        return new PagedMessageCursor((afterEpoch, afterId, limit) ->
+                getMessagesByUserIdAfter(userId, afterEpoch, afterId, limit), Integer.MIN_VALUE);
+    }
+
+    @Override
+    public boolean updateMessage(Message message) {
+        synchronized (writeOrder) {
+            if (!backing.updateMessage(message)) {
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                int slot = index.getSlot(message.getMessage_id());
+                if (slot >= 0) {
+                    setTextAndTime(slot, message.getMessage_text(), message.getTime_posted_epoch());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public Message updateMessageText(int messageId, String messageText) {
+        synchronized (writeOrder) {
+            Message updatedMessage = backing.updateMessageText(messageId, messageText);
+            if (updatedMessage != null) {
+                lock.writeLock().lock();
+                try {
+                    int slot = index.getSlot(messageId);
+                    if (slot >= 0) {
+                        setTextAndTime(slot, updatedMessage.getMessage_text(), updatedMessage.getTime_posted_epoch());
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return updatedMessage;
+        }
+    }
+
+    @Override
+    public Message deleteMessage(int messageId) {
+        synchronized (writeOrder) {
+            Message deletedMessage = backing.deleteMessage(messageId);
+            if (deletedMessage != null) {
+                lock.writeLock().lock();
+                try {
+                    int slot = index.getSlot(messageId);
+                    if (slot >= 0) {
+                        removeRow(slot);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return deletedMessage;
+        }
+    }
+
+    @Override
+    public Message getMessageByDetails(int postedBy, String messageText, long timePostedEpoch) {
+        byte[] text = messageText == null ? null : messageText.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            for (int slot : index.slotsByAccountAt(postedBy, timePostedEpoch)) {
+                if (text == null ? textLengths[slot] < 0 : textLengths[slot] == text.length && Arrays.equals(
+                        arena, textOffsets[slot], textOffsets[slot] + text.length, text, 0, text.length)) {
+                    return readRow(slot);
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many messages the store holds
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Oldest-first page of one account's messages, starting strictly after the (afterEpoch, afterId) position.
+     */
+    private List<Message> getMessagesByUserIdAfter(int userId, long afterEpoch, int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsByAccountAfter(userId, afterEpoch, afterId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Message> readRows(int[] slots) {
+        List<Message> messages = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            messages.add(readRow(slot));
+        }
+        return messages;
+    }
+
+    private Message readRow(int slot) {
+        int length = textLengths[slot];
+        String text = length < 0 ? null : new String(arena, textOffsets[slot], length, StandardCharsets.UTF_8);
+        return new Message(index.getId(slot), index.getPostedBy(slot), text, index.getTime(slot));
+    }
+
+    /**
+     * Called with the write lock held.
+     */
+    private void addRow(Message message) {
+        int slot = index.add(message.getMessage_id(), message.getPosted_by(), message.getTime_posted_epoch());
+        if (textOffsets.length < index.getSlotCapacity()) {
+            textOffsets = Arrays.copyOf(textOffsets, index.getSlotCapacity());
+            textLengths = Arrays.copyOf(textLengths, index.getSlotCapacity());
+        }
+        writeText(slot, message.getMessage_text());
+    }
+
+    private void removeRow(int slot) {
+        index.remove(slot);
+        arenaGarbage += Math.max(textLengths[slot], 0);
+        textLengths[slot] = -1;
+    }
+
+    private void setTextAndTime(int slot, String text, long time) {
+        index.setTime(slot, time);
+        arenaGarbage += Math.max(textLengths[slot], 0);
+        // so a compaction on the way does not copy the text being replaced
+        textLengths[slot] = -1;
+        writeText(slot, text);
+    }
+
+    /**
+     * Appends the text to the arena and points the slot at it. Old texts are left in place until the arena fills up,
+     * and then squeezed out if they make up at least half of it.
+     */
+    private void writeText(int slot, String text) {
+        if (text == null) {
+            textOffsets[slot] = 0;
+            textLengths[slot] = -1;
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (arenaUsed + bytes.length > arena.length) {
+            if (arenaGarbage * 2 >= arenaUsed) {
+                compactArena(bytes.length);
+            } else {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + bytes.length));
+            }
+        }
+        System.arraycopy(bytes, 0, arena, arenaUsed, bytes.length);
+        textOffsets[slot] = arenaUsed;
+        textLengths[slot] = bytes.length;
+        arenaUsed += bytes.length;
+    }
+
+    private void compactArena(int room) {
+        byte[] compacted = new byte[Math.max(arena.length, (arenaUsed - arenaGarbage + room) * 2)];
+        int[] used = new int[1];
+        index.forEachSlot(slot -> {
+            if (textLengths[slot] >= 0) {
+                System.arraycopy(arena, textOffsets[slot], compacted, used[0], textLengths[slot]);
+                textOffsets[slot] = used[0];
+                used[0] += textLengths[slot];
+            }
+        });
+        arena = compacted;
+        arenaUsed = used[0];
+        arenaGarbage = 0;
+    }
+}
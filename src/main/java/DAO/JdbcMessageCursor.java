@@ -0,0 +1,78 @@
+package DAO;
+
+import Model.Message;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A forward-only, read-only cursor over message rows. Rows are turned into Message objects one at a time as the
+ * caller asks for them, so walking the whole table never holds more than the JDBC fetch buffer in memory.
+ *
+ * The cursor keeps its pooled connection until it is closed, so always close it in a try-with-resources block.
+ */
+class JdbcMessageCursor implements MessageCursor {
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+
+    /**
+     * Takes ownership of the connection and statement. The statement's parameters must already be bound.
+     */
+    JdbcMessageCursor(Connection connection, PreparedStatement statement, int fetchSize) throws SQLException {
+        this.connection = connection;
+        this.statement = statement;
+        try {
+            // let H2 produce rows as they are read instead of building the whole result before the first one
+            try (Statement lazy = connection.createStatement()) {
+                lazy.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            }
+            statement.setFetchSize(fetchSize);
+            this.resultSet = statement.executeQuery();
+        } catch (SQLException e) {
+            closeResources();
+            throw e;
+        }
+    }
+
+    @Override
+    public Message next() throws SQLException {
+        if (!resultSet.next()) {
+            return null;
+        }
+        return new Message(resultSet.getInt("message_id"), resultSet.getInt("posted_by"),
+                resultSet.getString("message_text"), resultSet.getLong("time_posted_epoch"));
+    }
+
+    @Override
+    public void close() {
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+        closeResources();
+    }
+
+    private void closeResources() {
+        try {
+            statement.close();
+            // the connection goes back to the pool, so put the session setting back the way we found it
+            try (Statement lazy = connection.createStatement()) {
+                lazy.execute("SET LAZY_QUERY_EXECUTION FALSE");
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,853 @@
+package DAO;
+
+import Model.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A message store that keeps messages in an append-only log of memory-mapped segment files instead of H2. Every write
+ * is one record appended to the newest segment: a create or an update writes the whole message, and a delete writes
+ * a tombstone. An in-memory {@link MessageIndex} points each live message at its latest record, so getMessageById reads
+ * the record straight out of the mapped file, and the ordered pages are served the same way as in
+ * ColumnarMessageStore. The index is rebuilt by replaying the segments in order when the store is opened.
+ *
+ * Each segment starts with a 16 byte header (magic, format version, next message id). Each record is
+ *
+ *   int length, int crc32 of the body, then the body:
+ *   byte type, byte flags, int message_id, int posted_by, long time_posted_epoch, int text length (-1 for null), text
+ *
+ * A length of 0 marks the end of the records in a segment. Records of a createMessages batch carry the CONTINUED flag
+ * on all but the last, and replay only applies a batch once its last record is there, so a batch is kept whole or not
+ * at all. A record whose length or checksum does not hold up is where a crash cut the log short: it and everything
+ * after it in the segment are dropped, and the space is zeroed so new records can take its place.
+ *
+ * Writes land in the page cache as soon as they are made, so they survive the process dying. How long they may wait
+ * to reach the disk, in case the machine goes down too, is flushMillis; 0 forces every write out before it returns.
+ *
+ * Superseded records stay where they are until their segment is compacted: a background task copies the live records
+ * of any sealed segment whose dead share has reached compactDeadPercent to the end of the log and deletes the file.
+ * A tombstone keeps, in its posted_by field, the number of the oldest segment that may still hold a record of the
+ * message it deletes. It is carried over by compaction while any segment from that one up to its own is left, and
+ * only counts as dead once none is, so a tombstone that is still needed never makes its segment look worth compacting.
+ * Accounts still live in the AccountStore, which is asked whether posted_by exists before anything is appended.
+ */
+public class LogMessageStore implements MessageStore, AutoCloseable {
+
+    private static final int MAGIC = 0x4D53474C;
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 16;
+    /**
+     * length and crc
+     */
+    private static final int RECORD_HEADER_BYTES = 8;
+    /**
+     * Everything in a record body but the text.
+     */
+    private static final int BODY_FIXED_BYTES = 22;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    /**
+     * Set on every record of a batch but the last.
+     */
+    private static final byte CONTINUED = 1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long flushMillis;
+    private final int compactDeadPercent;
+    private final AccountStore accounts;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Only one compaction runs at a time.
+     */
+    private final Object compaction = new Object();
+    private final ScheduledExecutorService maintenance;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+
+    private final MessageIndex index = new MessageIndex();
+    // where each message's latest record is, indexed by the same slots as the index
+    private Segment[] recordSegments = new Segment[index.getSlotCapacity()];
+    private int[] recordOffsets = new int[index.getSlotCapacity()];
+    /**
+     * The oldest segment that may hold a record of each message, superseded ones included.
+     */
+    private int[] firstSegments = new int[index.getSlotCapacity()];
+
+    /**
+     * Oldest first; the last one is the one being appended to.
+     */
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private int nextId = 1;
+    private volatile boolean dirty;
+
+    private static class Segment {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        /**
+         * Where the next record goes.
+         */
+        private int end = SEGMENT_HEADER_BYTES;
+        /**
+         * Bytes of PUT records that have been superseded or deleted.
+         */
+        private int deadBytes;
+        /**
+         * For each tombstone in the segment, the oldest segment that may still hold a record it cancels.
+         */
+        private int[] tombstoneFirstSegments = new int[8];
+        private int tombstoneCount;
+
+        private Segment(int number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private int recordLength(int offset) {
+            return RECORD_HEADER_BYTES + buffer.getInt(offset);
+        }
+
+        private byte type(int offset) {
+            return buffer.get(offset + 8);
+        }
+
+        private byte flags(int offset) {
+            return buffer.get(offset + 9);
+        }
+
+        private int id(int offset) {
+            return buffer.getInt(offset + 10);
+        }
+
+        private int postedBy(int offset) {
+            return buffer.getInt(offset + 14);
+        }
+
+        private long time(int offset) {
+            return buffer.getLong(offset + 18);
+        }
+
+        /**
+         * Copies the text bytes straight out of the mapped file, with no read call, and decodes them.
+         */
+        private void addTombstone(int firstSegment) {
+            if (tombstoneCount == tombstoneFirstSegments.length) {
+                tombstoneFirstSegments = Arrays.copyOf(tombstoneFirstSegments, tombstoneCount * 2);
+            }
+            tombstoneFirstSegments[tombstoneCount++] = firstSegment;
+        }
+
+        /**
+         * @param previousNumber the number of the next older segment still in the log, or -1 if there is none
+         * @return how many of the segment's tombstones no longer cancel anything
+         */
+        private int droppableTombstones(int previousNumber) {
+            int count = 0;
+            for (int i = 0; i < tombstoneCount; i++) {
+                if (tombstoneFirstSegments[i] > previousNumber) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private String text(int offset) {
+            int length = buffer.getInt(offset + 26);
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.duplicate().position(offset + 30).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private boolean textEquals(int offset, byte[] text) {
+            int length = buffer.getInt(offset + 26);
+            if (text == null || length != text.length) {
+                return text == null && length < 0;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(offset + 30 + i) != text[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Opens the log in directory, creating it if needed, and replays it to rebuild the index.
+     * @param segmentBytes size of each segment file; at least 64 KB, and a createMessages batch must fit in one
+     * @param flushMillis how often writes are forced out to the disk, or 0 to force each one before it returns
+     * @param compactSeconds how often segments are checked for compaction, or 0 to only compact when asked
+     * @param compactDeadPercent how much of a segment must be dead before it is compacted
+     * @param accounts checked for posted_by before a message is stored
+     * @throws IOException if the log could not be read, or a segment in it is not a message log segment
+     */
+    public LogMessageStore(Path directory, int segmentBytes, long flushMillis, long compactSeconds,
+                           int compactDeadPercent, AccountStore accounts) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(segmentBytes, MIN_SEGMENT_BYTES);
+        this.flushMillis = flushMillis;
+        this.compactDeadPercent = compactDeadPercent;
+        this.accounts = accounts;
+        Files.createDirectories(directory);
+        lock.writeLock().lock();
+        try {
+            recover();
+            if (active == null || active.end + RECORD_HEADER_BYTES + BODY_FIXED_BYTES > active.buffer.capacity()) {
+                roll();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-log-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushMillis > 0) {
+            maintenance.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+        if (compactSeconds > 0) {
+            maintenance.scheduleWithFixedDelay(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("Message log compaction failed: " + e.getMessage());
+                }
+            }, compactSeconds, compactSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        if (!accounts.accountExists(message.getPosted_by())) {
+            throw new AccountNotFoundException("Account does not exist: " + message.getPosted_by());
+        }
+        byte[] text = encode(message.getMessage_text());
+        lock.writeLock().lock();
+        try {
+            if (!ensureRoom(recordLength(text))) {
+                return null;
+            }
+            int id = nextId++;
+            int offset = append(PUT, (byte) 0, id, message.getPosted_by(), message.getTime_posted_epoch(), text);
+            put(active, offset);
+            message.setMessage_id(id);
+            return message;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The whole batch goes into one segment, so it is either all replayed or not at all.
+     */
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        List<byte[]> texts = new ArrayList<>(messages.size());
+        int batchLength = 0;
+        for (Message message : messages) {
+            if (!accounts.accountExists(message.getPosted_by())) {
+                throw new AccountNotFoundException("A message names an account that does not exist.");
+            }
+            byte[] text = encode(message.getMessage_text());
+            texts.add(text);
+            batchLength += recordLength(text);
+        }
+        lock.writeLock().lock();
+        try {
+            if (!ensureRoom(batchLength)) {
+                return null;
+            }
+            int[] offsets = new int[messages.size()];
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                byte flags = i < messages.size() - 1 ? CONTINUED : 0;
+                offsets[i] = append(PUT, flags, nextId + i, message.getPosted_by(), message.getTime_posted_epoch(),
+                        texts.get(i));
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                messages.get(i).setMessage_id(nextId + i);
+                put(active, offsets[i]);
+            }
+            nextId += messages.size();
+            return messages;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message getMessageById(int id) {
+        lock.readLock().lock();
+        try {
+            int slot = index.getSlot(id);
+            return slot < 0 ? null : readRow(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the account's messages oldest first
+     */
+    @Override
+    public List<Message> getMessagesByUserId(int userId) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsByAccountAfter(userId, Long.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesByUserIdBefore(int userId, long sinceEpoch, long beforeEpoch, int beforeId,
+                                                   int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsByAccountBefore(userId, sinceEpoch, beforeEpoch, beforeId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return getMessagesAfter(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> getMessagesAfter(int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsAfter(afterId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesBetween(long sinceEpoch, long untilEpoch, long afterEpoch, int afterId,
+                                            int limit) {
+        lock.readLock().lock();
+        try {
+            return readRows(index.slotsBetween(sinceEpoch, untilEpoch, afterEpoch, afterId, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public MessageCursor openMessagesCursor(int afterId) {
+        return new PagedMessageCursor((afterEpoch, lastId, limit) -> getMessagesAfter(lastId, limit), afterId);
+    }
+
+    /**
+     * The cursor returns the account's messages oldest first.
+     */
+    @Override
+    public MessageCursor openMessagesByUserIdCursor(int userId) {
+        return new PagedMessageCursor((afterEpoch, afterId, limit) -> {
+            lock.readLock().lock();
+            try {
+                return readRows(index.slotsByAccountAfter(userId, afterEpoch, afterId, limit));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }, Integer.MIN_VALUE);
+    }
+
+    @Override
+    public boolean updateMessage(Message message) {
+        byte[] text = encode(message.getMessage_text());
+        lock.writeLock().lock();
+        try {
+            int slot = index.getSlot(message.getMessage_id());
+            if (slot < 0 || !ensureRoom(recordLength(text))) {
+                return false;
+            }
+            int offset = append(PUT, (byte) 0, message.getMessage_id(), index.getPostedBy(slot),
+                    message.getTime_posted_epoch(), text);
+            put(active, offset);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message updateMessageText(int messageId, String messageText) {
+        byte[] text = encode(messageText);
+        lock.writeLock().lock();
+        try {
+            int slot = index.getSlot(messageId);
+            if (slot < 0 || !ensureRoom(recordLength(text))) {
+                return null;
+            }
+            int offset = append(PUT, (byte) 0, messageId, index.getPostedBy(slot), index.getTime(slot), text);
+            put(active, offset);
+            return readRow(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message deleteMessage(int messageId) {
+        lock.writeLock().lock();
+        try {
+            int slot = index.getSlot(messageId);
+            if (slot < 0 || !ensureRoom(recordLength(null))) {
+                return null;
+            }
+            Message deletedMessage = readRow(slot);
+            int offset = append(DELETE, (byte) 0, messageId, firstSegments[slot], 0, null);
+            delete(active, offset);
+            return deletedMessage;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message getMessageByDetails(int postedBy, String messageText, long timePostedEpoch) {
+        byte[] text = encode(messageText);
+        lock.readLock().lock();
+        try {
+            for (int slot : index.slotsByAccountAt(postedBy, timePostedEpoch)) {
+                if (recordSegments[slot].textEquals(recordOffsets[slot], text)) {
+                    return readRow(slot);
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many messages the store holds
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many segment files the log is made of
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces every write made so far out to the disk.
+     */
+    public void flush() {
+        Segment segment;
+        lock.readLock().lock();
+        try {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            segment = active;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // outside the lock, since it waits for the disk; a segment rolled over since was forced when it was sealed
+        segment.buffer.force();
+    }
+
+    /**
+     * Compacts every sealed segment whose dead share has reached compactDeadPercent. Reads and writes carry on while
+     * it runs, apart from a brief pause for each record copied.
+     * @return how many segments were compacted
+     */
+    public int compact() throws IOException {
+        synchronized (compaction) {
+            List<Segment> candidates = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                int previousNumber = -1;
+                for (Segment segment : segments) {
+                    int used = segment.end - SEGMENT_HEADER_BYTES;
+                    long dead = segment.deadBytes
+                            + (long) segment.droppableTombstones(previousNumber) * recordLength(null);
+                    if (segment != active && used > 0 && dead * 100L >= (long) used * compactDeadPercent) {
+                        candidates.add(segment);
+                    }
+                    previousNumber = segment.number;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (Segment segment : candidates) {
+                compactSegment(segment);
+            }
+            return candidates.size();
+        }
+    }
+
+    /**
+     * Stops the background tasks, forces everything out to the disk and closes the segment files.
+     */
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                try {
+                    segment.channel.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the segment's live records to the end of the log, then deletes it. A tombstone is carried over too while
+     * an older segment from its first segment on is still in the log, since that one may hold a record it cancels.
+     */
+    private void compactSegment(Segment segment) throws IOException {
+        int previousNumber;
+        lock.readLock().lock();
+        try {
+            // only the compaction removes segments, so this can only get more conservative before the walk ends
+            int position = segments.indexOf(segment);
+            previousNumber = position > 0 ? segments.get(position - 1).number : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // the segment is sealed, so its records can be walked without the lock
+        for (int offset = SEGMENT_HEADER_BYTES; offset < segment.end; offset += segment.recordLength(offset)) {
+            int id = segment.id(offset);
+            lock.writeLock().lock();
+            try {
+                if (segment.type(offset) == PUT) {
+                    int slot = index.getSlot(id);
+                    if (slot >= 0 && recordSegments[slot] == segment && recordOffsets[slot] == offset) {
+                        byte[] text = encode(segment.text(offset));
+                        if (!ensureRoom(recordLength(text))) {
+                            throw new IOException("Could not make room to compact " + segment.path);
+                        }
+                        int copy = append(PUT, (byte) 0, id, segment.postedBy(offset), segment.time(offset), text);
+                        put(active, copy);
+                    }
+                } else if (segment.postedBy(offset) <= previousNumber) {
+                    if (!ensureRoom(recordLength(null))) {
+                        throw new IOException("Could not make room to compact " + segment.path);
+                    }
+                    append(DELETE, (byte) 0, id, segment.postedBy(offset), 0, null);
+                    active.addTombstone(segment.postedBy(offset));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            active.buffer.force();
+            segments.remove(segment);
+            segment.channel.close();
+            // the mapping itself is released once the buffer is garbage collected
+            Files.delete(segment.path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replays every segment in order. Called with the write lock held.
+     */
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+        // records of a batch whose last record has not been seen yet
+        List<Segment> pendingSegments = new ArrayList<>();
+        List<Integer> pendingOffsets = new ArrayList<>();
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            Segment segment = openSegment(Integer.parseInt(name.substring(8, name.length() - 4)), path, false);
+            if (path == paths.get(paths.size() - 1) && isBlankHeader(segment)) {
+                // created just before a crash, before its header reached the disk, so it cannot hold any records
+                System.err.println("Message log " + path + " was never started; removing it.");
+                segment.channel.close();
+                Files.delete(path);
+                break;
+            }
+            segments.add(segment);
+            if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException(path + " is not a message log segment.");
+            }
+            nextId = Math.max(nextId, segment.buffer.getInt(8));
+            int offset = SEGMENT_HEADER_BYTES;
+            while (offset + RECORD_HEADER_BYTES <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(offset);
+                if (length == 0) {
+                    break;
+                }
+                if (!isIntact(segment, offset)) {
+                    System.err.println("Message log " + path + " is damaged at offset " + offset
+                            + "; dropping it from there on.");
+                    zero(segment, offset);
+                    break;
+                }
+                pendingSegments.add(segment);
+                pendingOffsets.add(offset);
+                if ((segment.flags(offset) & CONTINUED) == 0) {
+                    for (int i = 0; i < pendingSegments.size(); i++) {
+                        replay(pendingSegments.get(i), pendingOffsets.get(i));
+                    }
+                    pendingSegments.clear();
+                    pendingOffsets.clear();
+                }
+                offset += RECORD_HEADER_BYTES + length;
+            }
+            segment.end = offset;
+            if (!pendingSegments.isEmpty()) {
+                // a batch cut short, since a batch never spans segments; drop it, or later records would be read as
+                // its end
+                int batchOffset = pendingOffsets.get(0);
+                System.err.println("Message log " + path + " ends in an incomplete batch at offset " + batchOffset
+                        + "; dropping it.");
+                zero(segment, batchOffset);
+                segment.end = batchOffset;
+                pendingSegments.clear();
+                pendingOffsets.clear();
+            }
+        }
+        if (!segments.isEmpty()) {
+            active = segments.get(segments.size() - 1);
+        }
+    }
+
+    private static boolean isBlankHeader(Segment segment) {
+        for (int i = 0; i < SEGMENT_HEADER_BYTES; i++) {
+            if (segment.buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void replay(Segment segment, int offset) {
+        int id = segment.id(offset);
+        nextId = Math.max(nextId, id + 1);
+        if (segment.type(offset) == PUT) {
+            put(segment, offset);
+        } else {
+            delete(segment, offset);
+        }
+    }
+
+    private boolean isIntact(Segment segment, int offset) {
+        int length = segment.buffer.getInt(offset);
+        if (length < BODY_FIXED_BYTES || offset + RECORD_HEADER_BYTES + length > segment.buffer.capacity()) {
+            return false;
+        }
+        int textLength = segment.buffer.getInt(offset + 26);
+        if (textLength < -1 || Math.max(textLength, 0) != length - BODY_FIXED_BYTES) {
+            return false;
+        }
+        crc.reset();
+        crc.update(segment.buffer.duplicate().position(offset + RECORD_HEADER_BYTES)
+                .limit(offset + RECORD_HEADER_BYTES + length));
+        return (int) crc.getValue() == segment.buffer.getInt(offset + 4);
+    }
+
+    private void zero(Segment segment, int from) {
+        for (int i = from; i < segment.buffer.capacity(); i++) {
+            segment.buffer.put(i, (byte) 0);
+        }
+        segment.buffer.force();
+    }
+
+    /**
+     * Points the message at the PUT record at offset, adding it to the index if it is new.
+     */
+    private void put(Segment segment, int offset) {
+        int id = segment.id(offset);
+        int slot = index.getSlot(id);
+        if (slot >= 0) {
+            recordSegments[slot].deadBytes += recordSegments[slot].recordLength(recordOffsets[slot]);
+            index.setTime(slot, segment.time(offset));
+        } else {
+            slot = index.add(id, segment.postedBy(offset), segment.time(offset));
+            if (recordOffsets.length < index.getSlotCapacity()) {
+                recordSegments = Arrays.copyOf(recordSegments, index.getSlotCapacity());
+                recordOffsets = Arrays.copyOf(recordOffsets, index.getSlotCapacity());
+                firstSegments = Arrays.copyOf(firstSegments, index.getSlotCapacity());
+            }
+            // replay goes oldest segment first, so this is the oldest record of the message still in the log
+            firstSegments[slot] = segment.number;
+        }
+        recordSegments[slot] = segment;
+        recordOffsets[slot] = offset;
+    }
+
+    /**
+     * Applies the DELETE record at offset. The tombstone is not counted as dead here; compact works out which
+     * tombstones no longer cancel anything from the segments left in the log.
+     */
+    private void delete(Segment segment, int offset) {
+        segment.addTombstone(segment.postedBy(offset));
+        int slot = index.getSlot(segment.id(offset));
+        if (slot >= 0) {
+            recordSegments[slot].deadBytes += recordSegments[slot].recordLength(recordOffsets[slot]);
+            recordSegments[slot] = null;
+            index.remove(slot);
+        }
+    }
+
+    private Message readRow(int slot) {
+        return new Message(index.getId(slot), index.getPostedBy(slot),
+                recordSegments[slot].text(recordOffsets[slot]), index.getTime(slot));
+    }
+
+    private List<Message> readRows(int[] slots) {
+        List<Message> messages = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            messages.add(readRow(slot));
+        }
+        return messages;
+    }
+
+    /**
+     * Makes sure the active segment has length bytes free, starting a new one if not.
+     * @return false if no segment can hold that much, or a new segment could not be created
+     */
+    private boolean ensureRoom(int length) {
+        if (length > segmentBytes - SEGMENT_HEADER_BYTES) {
+            System.err.println("A write of " + length + " bytes does not fit in a message log segment.");
+            return false;
+        }
+        if (active.end + length <= active.buffer.capacity()) {
+            return true;
+        }
+        try {
+            roll();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not start a new message log segment: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Seals the active segment and starts the next one. The new header is forced out before any record can follow it,
+     * so a crash can leave a newest segment with no header only if it also has no records.
+     */
+    private void roll() throws IOException {
+        int number = active == null ? 1 : active.number + 1;
+        Segment segment = openSegment(number, directory.resolve(String.format("segment-%08d.log", number)), true);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, FORMAT_VERSION);
+        segment.buffer.putInt(8, nextId);
+        segment.buffer.force();
+        if (active != null) {
+            active.buffer.force();
+        }
+        segments.add(segment);
+        active = segment;
+    }
+
+    private Segment openSegment(int number, Path path, boolean create) throws IOException {
+        FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = create ? segmentBytes : channel.size();
+            if (size < SEGMENT_HEADER_BYTES) {
+                throw new IOException(path + " is too short to be a message log segment.");
+            }
+            return new Segment(number, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a record at the end of the active segment, which must have room for it. The length goes in last, so a
+     * record that was only partly written reads as the end of the log or fails its checksum.
+     * @return the record's offset
+     */
+    private int append(byte type, byte flags, int id, int postedBy, long time, byte[] text) {
+        int bodyLength = BODY_FIXED_BYTES + (text == null ? 0 : text.length);
+        if (scratch.capacity() < bodyLength) {
+            scratch = ByteBuffer.allocate(bodyLength * 2);
+        }
+        scratch.clear();
+        scratch.put(type).put(flags).putInt(id).putInt(postedBy).putLong(time).putInt(text == null ? -1 : text.length);
+        if (text != null) {
+            scratch.put(text);
+        }
+        crc.reset();
+        crc.update(scratch.array(), 0, bodyLength);
+        int offset = active.end;
+        active.buffer.duplicate().position(offset + RECORD_HEADER_BYTES).put(scratch.array(), 0, bodyLength);
+        active.buffer.putInt(offset + 4, (int) crc.getValue());
+        active.buffer.putInt(offset, bodyLength);
+        active.end = offset + RECORD_HEADER_BYTES + bodyLength;
+        if (flushMillis <= 0) {
+            active.buffer.force();
+        } else {
+            dirty = true;
+        }
+        return offset;
+    }
+
+    private static int recordLength(byte[] text) {
+        return RECORD_HEADER_BYTES + BODY_FIXED_BYTES + (text == null ? 0 : text.length);
+    }
+
+    private static byte[] encode(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package DAO;
+
+import Model.Message;
+
+import java.sql.SQLException;
+
+/**
+ * A forward-only cursor over messages, handed out by a MessageStore for streaming exports. A cursor may hold on to
+ * resources such as a pooled connection until it is closed, so always close it in a try-with-resources block.
+ */
+public interface MessageCursor extends AutoCloseable {
+
+    /**
+     * @return the next message, or null once the cursor is exhausted
+     */
+    Message next() throws SQLException;
+
+    @Override
+    void close();
+}
@@ -2,6 +2,8 @@ package DAO;
 
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -9,138 +11,463 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
-public class MessageDAO {
+/**
+ * The message store backed by the H2 message table.
+ */
+public class MessageDAO implements MessageStore {
 
-    private Connection connection;
+    /**
+     * How many rows the JDBC driver is asked to buffer at a time when streaming through a MessageCursor.
+     */
+    private static final int FETCH_SIZE = Integer.getInteger("db.fetchSize", 500);
 
-    public MessageDAO() {
-        connection = ConnectionUtil.getConnection();
+    /**
+     * SQLSTATE H2 reports when an insert names a posted_by that has no account row.
+     */
+    private static final String FOREIGN_KEY_VIOLATION = "23506";
+
+    // per-method latency, exported on /metrics
+    private static final LatencyHistogram CREATE_MESSAGE_TIMER = timer("createMessage");
+    private static final LatencyHistogram CREATE_MESSAGES_TIMER = timer("createMessages");
+    private static final LatencyHistogram GET_MESSAGE_BY_ID_TIMER = timer("getMessageById");
+    private static final LatencyHistogram GET_MESSAGES_BY_USER_ID_TIMER = timer("getMessagesByUserId");
+    private static final LatencyHistogram GET_MESSAGES_BY_USER_ID_BEFORE_TIMER = timer("getMessagesByUserIdBefore");
+    private static final LatencyHistogram GET_ALL_MESSAGES_TIMER = timer("getAllMessages");
+    private static final LatencyHistogram GET_MESSAGES_AFTER_TIMER = timer("getMessagesAfter");
+    private static final LatencyHistogram GET_MESSAGES_BETWEEN_TIMER = timer("getMessagesBetween");
+    private static final LatencyHistogram OPEN_MESSAGES_CURSOR_TIMER = timer("openMessagesCursor");
+    private static final LatencyHistogram OPEN_MESSAGES_BY_USER_ID_CURSOR_TIMER = timer("openMessagesByUserIdCursor");
+    private static final LatencyHistogram UPDATE_MESSAGE_TIMER = timer("updateMessage");
+    private static final LatencyHistogram UPDATE_MESSAGE_TEXT_TIMER = timer("updateMessageText");
+    private static final LatencyHistogram DELETE_MESSAGE_TIMER = timer("deleteMessage");
+    private static final LatencyHistogram GET_MESSAGE_BY_DETAILS_TIMER = timer("getMessageByDetails");
+
+    private static LatencyHistogram timer(String method) {
+        return Metrics.getInstance().daoTimer("MessageDAO." + method);
     }
 
+    /**
+     * @throws AccountNotFoundException if posted_by does not refer to an account; the foreign key decides this
+     */
+    @Override
     public Message createMessage(Message message) {
-        String insertQuery = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-        try (PreparedStatement statement = connection.prepareStatement(insertQuery, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            statement.setInt(1, message.getPosted_by());
-            statement.setString(2, message.getMessage_text());
-            statement.setLong(3, message.getTime_posted_epoch());
-            int rowsAffected = statement.executeUpdate();
-            if (rowsAffected == 0) {
+        long start = System.nanoTime();
+        try {
+            String insertQuery = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(insertQuery, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                statement.setInt(1, message.getPosted_by());
+                statement.setString(2, message.getMessage_text());
+                statement.setLong(3, message.getTime_posted_epoch());
+                int rowsAffected = statement.executeUpdate();
+                if (rowsAffected == 0) {
+                    return null;
+                }
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        int messageId = generatedKeys.getInt(1);
+                        message.setMessage_id(messageId);
+                        return message;
+                    } else {
+                        throw new SQLException("Creating message failed, no ID obtained.");
+                    }
+                }
+            } catch (SQLException e) {
+                if (FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                    throw new AccountNotFoundException("Account does not exist: " + message.getPosted_by());
+                }
+                System.err.println(e.getMessage());
                 return null;
             }
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int messageId = generatedKeys.getInt(1);
-                    message.setMessage_id(messageId);
-                    return message;
-                } else {
-                    throw new SQLException("Creating message failed, no ID obtained.");
+        } finally {
+            CREATE_MESSAGE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Inserts all the messages with one JDBC batch inside one transaction, so either every message is stored or none
+     * is. On success each message has its generated message_id set.
+     * @return the same messages with ids filled in, or null if the batch was rolled back
+     * @throws AccountNotFoundException if any posted_by does not refer to an account; nothing is stored
+     */
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        long start = System.nanoTime();
+        try {
+            String insertQuery = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+            try (Connection connection = ConnectionUtil.getConnection()) {
+                connection.setAutoCommit(false);
+                try (PreparedStatement statement = connection.prepareStatement(insertQuery, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                    for (Message message : messages) {
+                        statement.setInt(1, message.getPosted_by());
+                        statement.setString(2, message.getMessage_text());
+                        statement.setLong(3, message.getTime_posted_epoch());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                        for (Message message : messages) {
+                            if (!generatedKeys.next()) {
+                                throw new SQLException("Creating messages failed, not every message got an ID.");
+                            }
+                            message.setMessage_id(generatedKeys.getInt(1));
+                        }
+                    }
+                    connection.commit();
+                    return messages;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                    throw new AccountNotFoundException("A message names an account that does not exist.");
                 }
+                System.err.println(e.getMessage());
+                return null;
             }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            return null;
+        } finally {
+            CREATE_MESSAGES_TIMER.recordSince(start);
         }
     }
 
+    @Override
     public Message getMessageById(int id) {
-        String query = "SELECT * FROM message WHERE message_id = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            preparedStatement.setInt(1, id);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                int userId = resultSet.getInt("posted_by");
-                String messageText = resultSet.getString("message_text");
-                long timePostedEpoch = resultSet.getLong("time_posted_epoch");
-                return new Message(id, userId, messageText, timePostedEpoch);
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM message WHERE message_id = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setInt(1, id);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                if (resultSet.next()) {
+                    int userId = resultSet.getInt("posted_by");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    return new Message(id, userId, messageText, timePostedEpoch);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return null;
+        } finally {
+            GET_MESSAGE_BY_ID_TIMER.recordSince(start);
         }
-        return null;
-    }    
+    }
 
+    @Override
     public List<Message> getMessagesByUserId(int userId) {
-        List<Message> messages = new ArrayList<>();
-        String query = "SELECT * FROM message WHERE posted_by = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            preparedStatement.setInt(1, userId);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                int id = resultSet.getInt("message_id");
-                String messageText = resultSet.getString("message_text");
-                long timePostedEpoch = resultSet.getLong("time_posted_epoch");
-                messages.add(new Message(id, userId, messageText, timePostedEpoch));
+        long start = System.nanoTime();
+        try {
+            List<Message> messages = new ArrayList<>();
+            String query = "SELECT * FROM message WHERE posted_by = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setInt(1, userId);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("message_id");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    messages.add(new Message(id, userId, messageText, timePostedEpoch));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return messages;
+        } finally {
+            GET_MESSAGES_BY_USER_ID_TIMER.recordSince(start);
         }
-        return messages;
     }
 
+    /**
+     * Newest-first keyset page of one account's messages, starting strictly before the (beforeEpoch, beforeId)
+     * position and stopping at sinceEpoch. The query is shaped so H2 reads it straight off message_posted_by_time_idx
+     * in index order, without a sort, which keeps the cost of a page independent of how many messages the account has.
+     * @param sinceEpoch oldest time_posted_epoch to include, or Long.MIN_VALUE for no lower bound
+     */
+    @Override
+    public List<Message> getMessagesByUserIdBefore(int userId, long sinceEpoch, long beforeEpoch, int beforeId,
+                                                   int limit) {
+        long start = System.nanoTime();
+        try {
+            List<Message> messages = new ArrayList<>();
+            String query = "SELECT * FROM message WHERE posted_by = ? AND time_posted_epoch <= ? "
+                    + "AND time_posted_epoch >= ? AND (time_posted_epoch < ? OR message_id < ?) "
+                    + "ORDER BY posted_by, time_posted_epoch DESC, message_id DESC LIMIT ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setInt(1, userId);
+                preparedStatement.setLong(2, beforeEpoch);
+                preparedStatement.setLong(3, sinceEpoch);
+                preparedStatement.setLong(4, beforeEpoch);
+                preparedStatement.setInt(5, beforeId);
+                preparedStatement.setInt(6, limit);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("message_id");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    messages.add(new Message(id, userId, messageText, timePostedEpoch));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return messages;
+        } finally {
+            GET_MESSAGES_BY_USER_ID_BEFORE_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
     public List<Message> getAllMessages() {
-        List<Message> messages = new ArrayList<>();
-        String selectQuery = "SELECT * FROM message";
-        try (PreparedStatement selectStatement = connection.prepareStatement(selectQuery)) {
-            ResultSet resultSet = selectStatement.executeQuery();
-            while (resultSet.next()) {
-                int id = resultSet.getInt("message_id");
-                int userId = resultSet.getInt("posted_by");
-                String messageText = resultSet.getString("message_text");
-                long timePostedEpoch = resultSet.getLong("time_posted_epoch");
-                messages.add(new Message(id, userId, messageText, timePostedEpoch));
+        long start = System.nanoTime();
+        try {
+            List<Message> messages = new ArrayList<>();
+            String selectQuery = "SELECT * FROM message";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement selectStatement = connection.prepareStatement(selectQuery)) {
+                ResultSet resultSet = selectStatement.executeQuery();
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("message_id");
+                    int userId = resultSet.getInt("posted_by");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    messages.add(new Message(id, userId, messageText, timePostedEpoch));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                // If an exception occurs, return an empty list instead of null
+                return new ArrayList<>();
+            }
+            // If there are no messages, return an empty list instead of null
+            if (messages.isEmpty()) {
+                return new ArrayList<>();
+            }
+            return messages;
+        } finally {
+            GET_ALL_MESSAGES_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Keyset pagination over the primary key: the page starts right after afterId, so the cost of a page does not
+     * depend on how deep into the table it is.
+     */
+    @Override
+    public List<Message> getMessagesAfter(int afterId, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<Message> messages = new ArrayList<>();
+            String query = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setInt(1, afterId);
+                preparedStatement.setInt(2, limit);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("message_id");
+                    int userId = resultSet.getInt("posted_by");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    messages.add(new Message(id, userId, messageText, timePostedEpoch));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            // If an exception occurs, return an empty list instead of null
-            return new ArrayList<>();
+            return messages;
+        } finally {
+            GET_MESSAGES_AFTER_TIMER.recordSince(start);
         }
-        // If there are no messages, return an empty list instead of null
-        if (messages.isEmpty()) {
-            return new ArrayList<>();
+    }
+
+    /**
+     * Oldest-first keyset page of the messages posted in [sinceEpoch, untilEpoch), starting strictly after the
+     * (afterEpoch, afterId) position. H2 range-scans message_time_idx from the start of the window, so a page costs
+     * the rows it returns however large the table is.
+     * @param afterEpoch time of the last message on the previous page, or Long.MIN_VALUE for the first page
+     */
+    @Override
+    public List<Message> getMessagesBetween(long sinceEpoch, long untilEpoch, long afterEpoch, int afterId,
+                                            int limit) {
+        long start = System.nanoTime();
+        try {
+            List<Message> messages = new ArrayList<>();
+            // Long.MAX_VALUE is no bound at all, so it must not leave out the messages posted at that very time
+            String query = "SELECT * FROM message WHERE time_posted_epoch >= ? AND time_posted_epoch "
+                    + (untilEpoch == Long.MAX_VALUE ? "<= ? " : "< ? ")
+                    + "AND (time_posted_epoch > ? OR message_id > ?) "
+                    + "ORDER BY time_posted_epoch, message_id LIMIT ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setLong(1, Math.max(sinceEpoch, afterEpoch));
+                preparedStatement.setLong(2, untilEpoch);
+                preparedStatement.setLong(3, afterEpoch);
+                preparedStatement.setInt(4, afterId);
+                preparedStatement.setInt(5, limit);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("message_id");
+                    int userId = resultSet.getInt("posted_by");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    messages.add(new Message(id, userId, messageText, timePostedEpoch));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return messages;
+        } finally {
+            GET_MESSAGES_BETWEEN_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Opens a forward-only cursor over every message after afterId, in id order, for streaming exports.
+     */
+    @Override
+    public MessageCursor openMessagesCursor(int afterId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id";
+            Connection connection = ConnectionUtil.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement(query,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                preparedStatement.setInt(1, afterId);
+                return new JdbcMessageCursor(connection, preparedStatement, FETCH_SIZE);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        } finally {
+            OPEN_MESSAGES_CURSOR_TIMER.recordSince(start);
         }
-        return messages;
-    }      
+    }
 
+    /**
+     * Opens a forward-only cursor over every message posted by userId, for streaming exports.
+     */
+    @Override
+    public MessageCursor openMessagesByUserIdCursor(int userId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM message WHERE posted_by = ?";
+            Connection connection = ConnectionUtil.getConnection();
+            try {
+                PreparedStatement preparedStatement = connection.prepareStatement(query,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                preparedStatement.setInt(1, userId);
+                return new JdbcMessageCursor(connection, preparedStatement, FETCH_SIZE);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        } finally {
+            OPEN_MESSAGES_BY_USER_ID_CURSOR_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
     public boolean updateMessage(Message message) {
-        String query = "UPDATE message SET message_text = ?, time_posted_epoch = ? WHERE message_id = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            preparedStatement.setString(1, message.getMessage_text());
-            preparedStatement.setLong(2, message.getTime_posted_epoch());
-            preparedStatement.setInt(3, message.getMessage_id());
-            int result = preparedStatement.executeUpdate();
-            return result > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+        long start = System.nanoTime();
+        try {
+            String query = "UPDATE message SET message_text = ?, time_posted_epoch = ? WHERE message_id = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setString(1, message.getMessage_text());
+                preparedStatement.setLong(2, message.getTime_posted_epoch());
+                preparedStatement.setInt(3, message.getMessage_id());
+                int result = preparedStatement.executeUpdate();
+                return result > 0;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        } finally {
+            UPDATE_MESSAGE_TIMER.recordSince(start);
         }
-    }    
-
-    public boolean deleteMessage(int messageId) {
-        String query = "DELETE FROM message WHERE message_id = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            preparedStatement.setInt(1, messageId);
-            int result = preparedStatement.executeUpdate();
-            return result > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+    }
+
+    /**
+     * Changes a message's text and returns the row as it is after the update, in one statement, using H2's FINAL TABLE
+     * data change delta table.
+     * @return the updated message, or null if there is no message with that id
+     */
+    @Override
+    public Message updateMessageText(int messageId, String messageText) {
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ? WHERE message_id = ?)";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setString(1, messageText);
+                preparedStatement.setInt(2, messageId);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                if (resultSet.next()) {
+                    int userId = resultSet.getInt("posted_by");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    return new Message(messageId, userId, resultSet.getString("message_text"), timePostedEpoch);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return null;
+        } finally {
+            UPDATE_MESSAGE_TEXT_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Deletes a message and returns the row as it was before the delete, in one statement, using H2's OLD TABLE data
+     * change delta table.
+     * @return the deleted message, or null if there was no message with that id
+     */
+    @Override
+    public Message deleteMessage(int messageId) {
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?)";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setInt(1, messageId);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                if (resultSet.next()) {
+                    int userId = resultSet.getInt("posted_by");
+                    String messageText = resultSet.getString("message_text");
+                    long timePostedEpoch = resultSet.getLong("time_posted_epoch");
+                    return new Message(messageId, userId, messageText, timePostedEpoch);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return null;
+        } finally {
+            DELETE_MESSAGE_TIMER.recordSince(start);
         }
     }
     
+    @Override
     public Message getMessageByDetails(int postedBy, String messageText, long timePostedEpoch) {
-        String query = "SELECT * FROM message WHERE posted_by = ? AND message_text = ? AND time_posted_epoch = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            preparedStatement.setInt(1, postedBy);
-            preparedStatement.setString(2, messageText);
-            preparedStatement.setLong(3, timePostedEpoch);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                int id = resultSet.getInt("message_id");
-                return new Message(id, postedBy, messageText, timePostedEpoch);
+        long start = System.nanoTime();
+        try {
+            String query = "SELECT * FROM message WHERE posted_by = ? AND message_text = ? AND time_posted_epoch = ?";
+            try (Connection connection = ConnectionUtil.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setInt(1, postedBy);
+                preparedStatement.setString(2, messageText);
+                preparedStatement.setLong(3, timePostedEpoch);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                if (resultSet.next()) {
+                    int id = resultSet.getInt("message_id");
+                    return new Message(id, postedBy, messageText, timePostedEpoch);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return null;
+        } finally {
+            GET_MESSAGE_BY_DETAILS_TIMER.recordSince(start);
         }
-        return null;
     }
 }
\ No newline at end of file
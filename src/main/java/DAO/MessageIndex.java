@@ -0,0 +1,420 @@
+package DAO;
+
+import Util.IntIntMap;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The keys of every message held by a store that answers reads from memory, kept in primitive arrays so that finding
+ * a message or a page of messages allocates nothing but the result. Each message has a slot: the index keeps its
+ * message_id, posted_by and time_posted_epoch there, and the store keeps whatever else it needs (the text, or where
+ * the record sits on disk) in its own arrays under the same slot number.
+ *
+ * An id map finds a slot, and three sorted slot lists serve the ordered reads: one by id, one by
+ * (time_posted_epoch, message_id), and a posting list per account in the same time order. A page is a binary search
+ * and a walk. Not thread-safe; the store guards it with its own lock.
+ */
+class MessageIndex {
+
+    private static final int[] NO_SLOTS = new int[0];
+
+    // the key columns, indexed by slot; a free slot has id 0
+    private int[] ids = new int[1024];
+    private int[] postedBy = new int[1024];
+    private long[] times = new long[1024];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+
+    private final IntIntMap slotsById = new IntIntMap(1024);
+    private final SlotList idOrder = new SlotList(false);
+    private final SlotList timeOrder = new SlotList(true);
+    private final IntIntMap postingIndexByAccount = new IntIntMap();
+    private SlotList[] postings = new SlotList[16];
+    private int postingCount;
+
+    /**
+     * Slots kept in ascending key order, where the key is (message_id) or (time_posted_epoch, message_id). Ids are
+     * unique, so no two slots share a key.
+     *
+     * The slots are held in blocks of at most BLOCK_SIZE, so putting a slot in or taking one out of the middle only
+     * shifts the rest of its block and the block table, not the whole list. Deletes, backdated posts and time changes
+     * then cost a few thousand moves on a million messages rather than a million. Positions count across all blocks,
+     * and blockStarts maps one back to its block.
+     */
+    private class SlotList {
+        private static final int BLOCK_SIZE = 1024;
+
+        private final boolean byTime;
+        private int[][] blocks = new int[4][];
+        private int[] blockSizes = new int[4];
+        /**
+         * Position of the first slot of each block.
+         */
+        private int[] blockStarts = new int[4];
+        private int blockCount;
+        private int size;
+
+        private SlotList(boolean byTime) {
+            this.byTime = byTime;
+        }
+
+        private int compare(int slot, long primary, int id) {
+            int result = Long.compare(byTime ? times[slot] : ids[slot], primary);
+            return result != 0 ? result : Integer.compare(ids[slot], id);
+        }
+
+        private boolean isBelow(int slot, long primary, int id, boolean inclusive) {
+            int result = compare(slot, primary, id);
+            return result < 0 || (result == 0 && !inclusive);
+        }
+
+        /**
+         * @return the first position whose key is above (primary, id), or at or above it if inclusive
+         */
+        private int search(long primary, int id, boolean inclusive) {
+            // the first block that does not lie wholly below the key, then the first slot in it that does not
+            int low = 0;
+            int high = blockCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (isBelow(blocks[mid][blockSizes[mid] - 1], primary, id, inclusive)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == blockCount) {
+                return size;
+            }
+            int block = low;
+            int[] slots = blocks[block];
+            low = 0;
+            high = blockSizes[block];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (isBelow(slots[mid], primary, id, inclusive)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return blockStarts[block] + low;
+        }
+
+        /**
+         * @return the block holding position, which must be below size
+         */
+        private int blockOf(int position) {
+            int low = 0;
+            int high = blockCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (blockStarts[mid] <= position) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private void insert(int slot) {
+            long primary = byTime ? times[slot] : ids[slot];
+            int block;
+            int at;
+            // new messages nearly always sort last, so check that before searching
+            if (size == 0 || compare(blocks[blockCount - 1][blockSizes[blockCount - 1] - 1], primary, ids[slot]) < 0) {
+                if (blockCount == 0 || blockSizes[blockCount - 1] == BLOCK_SIZE) {
+                    addBlock(blockCount, 8);
+                }
+                block = blockCount - 1;
+                at = blockSizes[block];
+            } else {
+                int position = search(primary, ids[slot], true);
+                block = position == size ? blockCount - 1 : blockOf(position);
+                at = position - blockStarts[block];
+                if (blockSizes[block] == BLOCK_SIZE) {
+                    split(block);
+                    if (at > blockSizes[block]) {
+                        at -= blockSizes[block];
+                        block++;
+                    }
+                }
+            }
+            if (blockSizes[block] == blocks[block].length) {
+                blocks[block] = Arrays.copyOf(blocks[block], Math.min(blockSizes[block] * 2, BLOCK_SIZE));
+            }
+            int[] slots = blocks[block];
+            System.arraycopy(slots, at, slots, at + 1, blockSizes[block] - at);
+            slots[at] = slot;
+            blockSizes[block]++;
+            size++;
+            updateStarts(block + 1);
+        }
+
+        /**
+         * Must be called before the slot's key columns change.
+         */
+        private void remove(int slot) {
+            int position = search(byTime ? times[slot] : ids[slot], ids[slot], true);
+            int block = blockOf(position);
+            int at = position - blockStarts[block];
+            int[] slots = blocks[block];
+            System.arraycopy(slots, at + 1, slots, at, blockSizes[block] - at - 1);
+            blockSizes[block]--;
+            size--;
+            if (blockSizes[block] == 0) {
+                removeBlock(block);
+                updateStarts(block);
+            } else {
+                updateStarts(block + 1);
+            }
+        }
+
+        /**
+         * @return up to limit slots from position from onwards, or backwards if step is -1, stopping at the first
+         * slot whose time is outside [minTime, maxTime]. Both bounds are inclusive, so Long.MIN_VALUE and
+         * Long.MAX_VALUE leave a side unbounded without dropping messages posted at those times.
+         */
+        private int[] collect(int from, int step, int limit, long minTime, long maxTime) {
+            int[] found = new int[Math.max(0, Math.min(limit, step > 0 ? size - from : from + 1))];
+            if (found.length == 0) {
+                return found;
+            }
+            int count = 0;
+            int block = blockOf(from);
+            int at = from - blockStarts[block];
+            while (count < found.length) {
+                int slot = blocks[block][at];
+                long time = times[slot];
+                if (time < minTime || time > maxTime) {
+                    break;
+                }
+                found[count++] = slot;
+                at += step;
+                if (at < 0) {
+                    if (--block < 0) {
+                        break;
+                    }
+                    at = blockSizes[block] - 1;
+                } else if (at == blockSizes[block]) {
+                    if (++block == blockCount) {
+                        break;
+                    }
+                    at = 0;
+                }
+            }
+            return count == found.length ? found : Arrays.copyOf(found, count);
+        }
+
+        /**
+         * Moves the upper half of a full block into a new block right after it.
+         */
+        private void split(int block) {
+            int half = BLOCK_SIZE / 2;
+            addBlock(block + 1, BLOCK_SIZE);
+            System.arraycopy(blocks[block], half, blocks[block + 1], 0, BLOCK_SIZE - half);
+            blockSizes[block] = half;
+            blockSizes[block + 1] = BLOCK_SIZE - half;
+        }
+
+        /**
+         * @param capacity slots the new block starts out with room for; blocks grow up to BLOCK_SIZE, so an account
+         * with a handful of messages does not hold a whole block
+         */
+        private void addBlock(int block, int capacity) {
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+                blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+                blockStarts = Arrays.copyOf(blockStarts, blockCount * 2);
+            }
+            System.arraycopy(blocks, block, blocks, block + 1, blockCount - block);
+            System.arraycopy(blockSizes, block, blockSizes, block + 1, blockCount - block);
+            System.arraycopy(blockStarts, block, blockStarts, block + 1, blockCount - block);
+            blocks[block] = new int[capacity];
+            blockSizes[block] = 0;
+            blockStarts[block] = block == 0 ? 0 : blockStarts[block - 1] + blockSizes[block - 1];
+            blockCount++;
+        }
+
+        private void removeBlock(int block) {
+            System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+            System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+            System.arraycopy(blockStarts, block + 1, blockStarts, block, blockCount - block - 1);
+            blockCount--;
+            blocks[blockCount] = null;
+        }
+
+        private void updateStarts(int fromBlock) {
+            if (blockCount > 0) {
+                blockStarts[0] = 0;
+            }
+            for (int block = Math.max(fromBlock, 1); block < blockCount; block++) {
+                blockStarts[block] = blockStarts[block - 1] + blockSizes[block - 1];
+            }
+        }
+    }
+
+    /**
+     * @return the new message's slot; columns the store keeps for it must be sized to getSlotCapacity
+     */
+    int add(int id, int postedBy, long time) {
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            if (slotCount == ids.length) {
+                int capacity = slotCount * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                this.postedBy = Arrays.copyOf(this.postedBy, capacity);
+                times = Arrays.copyOf(times, capacity);
+            }
+            slot = slotCount++;
+        }
+        ids[slot] = id;
+        this.postedBy[slot] = postedBy;
+        times[slot] = time;
+        slotsById.put(id, slot);
+        idOrder.insert(slot);
+        timeOrder.insert(slot);
+        int postingIndex = postingIndexByAccount.get(postedBy);
+        if (postingIndex < 0) {
+            if (postingCount == postings.length) {
+                postings = Arrays.copyOf(postings, postingCount * 2);
+            }
+            postingIndex = postingCount++;
+            postings[postingIndex] = new SlotList(true);
+            postingIndexByAccount.put(postedBy, postingIndex);
+        }
+        postings[postingIndex].insert(slot);
+        return slot;
+    }
+
+    void remove(int slot) {
+        idOrder.remove(slot);
+        timeOrder.remove(slot);
+        getPosting(postedBy[slot]).remove(slot);
+        slotsById.remove(ids[slot]);
+        ids[slot] = 0;
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    void setTime(int slot, long time) {
+        if (times[slot] == time) {
+            return;
+        }
+        SlotList posting = getPosting(postedBy[slot]);
+        timeOrder.remove(slot);
+        posting.remove(slot);
+        times[slot] = time;
+        timeOrder.insert(slot);
+        posting.insert(slot);
+    }
+
+    /**
+     * @return the message's slot, or -1 if the index does not hold it
+     */
+    int getSlot(int id) {
+        return slotsById.get(id);
+    }
+
+    int getId(int slot) {
+        return ids[slot];
+    }
+
+    int getPostedBy(int slot) {
+        return postedBy[slot];
+    }
+
+    long getTime(int slot) {
+        return times[slot];
+    }
+
+    int size() {
+        return slotsById.size();
+    }
+
+    /**
+     * @return one more than the highest slot number handed out so far could be
+     */
+    int getSlotCapacity() {
+        return ids.length;
+    }
+
+    /**
+     * Calls consumer with every slot in use, in slot order.
+     */
+    void forEachSlot(IntConsumer consumer) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (ids[slot] != 0) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * @return up to limit slots of messages with ids above afterId, in id order
+     */
+    int[] slotsAfter(int afterId, int limit) {
+        return idOrder.collect(idOrder.search(afterId, afterId, false), 1, limit, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return up to limit slots of messages posted in [sinceEpoch, untilEpoch) strictly after (afterEpoch, afterId),
+     * oldest first; an untilEpoch of Long.MAX_VALUE is no upper bound, as in MessageDAO
+     */
+    int[] slotsBetween(long sinceEpoch, long untilEpoch, long afterEpoch, int afterId, int limit) {
+        if (untilEpoch == Long.MIN_VALUE) {
+            return NO_SLOTS;
+        }
+        int from = Math.max(timeOrder.search(afterEpoch, afterId, false),
+                timeOrder.search(sinceEpoch, Integer.MIN_VALUE, true));
+        return timeOrder.collect(from, 1, limit, Long.MIN_VALUE,
+                untilEpoch == Long.MAX_VALUE ? Long.MAX_VALUE : untilEpoch - 1);
+    }
+
+    /**
+     * @return up to limit slots of the account's messages posted at or after sinceEpoch strictly before
+     * (beforeEpoch, beforeId), newest first
+     */
+    int[] slotsByAccountBefore(int accountId, long sinceEpoch, long beforeEpoch, int beforeId, int limit) {
+        SlotList posting = getPosting(accountId);
+        if (posting == null) {
+            return NO_SLOTS;
+        }
+        return posting.collect(posting.search(beforeEpoch, beforeId, true) - 1, -1, limit, sinceEpoch,
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * @return up to limit slots of the account's messages strictly after (afterEpoch, afterId), oldest first
+     */
+    int[] slotsByAccountAfter(int accountId, long afterEpoch, int afterId, int limit) {
+        SlotList posting = getPosting(accountId);
+        if (posting == null) {
+            return NO_SLOTS;
+        }
+        return posting.collect(posting.search(afterEpoch, afterId, false), 1, limit, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the slots of the account's messages posted at exactly time, in id order
+     */
+    int[] slotsByAccountAt(int accountId, long time) {
+        SlotList posting = getPosting(accountId);
+        if (posting == null) {
+            return NO_SLOTS;
+        }
+        return posting.collect(posting.search(time, Integer.MIN_VALUE, true), 1, Integer.MAX_VALUE, time, time);
+    }
+
+    private SlotList getPosting(int accountId) {
+        int index = postingIndexByAccount.get(accountId);
+        return index < 0 ? null : postings[index];
+    }
+}
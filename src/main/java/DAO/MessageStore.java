@@ -0,0 +1,99 @@
+package DAO;
+
+import Model.Message;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Where messages are kept. MessageDAO keeps them in the H2 message table, ColumnarMessageStore serves them from
+ * memory and writes through to H2, and LogMessageStore keeps them in an append-only log of memory-mapped files;
+ * {@link StorageEngine} picks one at startup from storage.engine (h2, columnar or log). Every implementation gives
+ * the same answers, including the order of each page, so the service and controller do not need to know which one
+ * they have.
+ */
+public interface MessageStore {
+
+    /**
+     * Thrown when posted_by does not refer to an account. Callers normally check this first, so the store's own check
+     * is only the safety net.
+     */
+    class AccountNotFoundException extends RuntimeException {
+        public AccountNotFoundException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return the message with its generated message_id set, or null if it could not be stored
+     * @throws AccountNotFoundException if posted_by does not refer to an account
+     */
+    Message createMessage(Message message);
+
+    /**
+     * Stores all the messages or none of them. On success each message has its generated message_id set.
+     * @return the same messages with ids filled in, or null if nothing was stored
+     * @throws AccountNotFoundException if any posted_by does not refer to an account; nothing is stored
+     */
+    List<Message> createMessages(List<Message> messages);
+
+    /**
+     * @return the message, or null if there is none with that id
+     */
+    Message getMessageById(int id);
+
+    List<Message> getMessagesByUserId(int userId);
+
+    /**
+     * Newest-first page of one account's messages posted at or after sinceEpoch, starting strictly before the
+     * (beforeEpoch, beforeId) position.
+     * @param sinceEpoch oldest time_posted_epoch to include, or Long.MIN_VALUE for no lower bound
+     */
+    List<Message> getMessagesByUserIdBefore(int userId, long sinceEpoch, long beforeEpoch, int beforeId, int limit);
+
+    List<Message> getAllMessages();
+
+    /**
+     * @return up to limit messages with ids above afterId, in id order
+     */
+    List<Message> getMessagesAfter(int afterId, int limit);
+
+    /**
+     * Oldest-first page of the messages posted in [sinceEpoch, untilEpoch), starting strictly after the
+     * (afterEpoch, afterId) position. An untilEpoch of Long.MAX_VALUE means no upper bound, so messages posted at
+     * Long.MAX_VALUE are included.
+     * @param afterEpoch time of the last message on the previous page, or Long.MIN_VALUE for the first page
+     */
+    List<Message> getMessagesBetween(long sinceEpoch, long untilEpoch, long afterEpoch, int afterId, int limit);
+
+    /**
+     * Opens a cursor over every message after afterId, in id order.
+     */
+    MessageCursor openMessagesCursor(int afterId) throws SQLException;
+
+    /**
+     * Opens a cursor over every message posted by userId.
+     */
+    MessageCursor openMessagesByUserIdCursor(int userId) throws SQLException;
+
+    /**
+     * Overwrites a message's text and time.
+     * @return false if there is no message with that id
+     */
+    boolean updateMessage(Message message);
+
+    /**
+     * @return the full message after the update, or null if there is no message with that id
+     */
+    Message updateMessageText(int messageId, String messageText);
+
+    /**
+     * @return the message as it was before it was deleted, or null if there was no message with that id
+     */
+    Message deleteMessage(int messageId);
+
+    /**
+     * @return a message with exactly these fields, or null if there is none
+     */
+    Message getMessageByDetails(int postedBy, String messageText, long timePostedEpoch);
+}
@@ -0,0 +1,59 @@
+package DAO;
+
+import Model.Message;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A cursor for the stores that answer reads from memory. It copies out one page of messages at a time, so a long
+ * export never holds a store's lock for long, and asks for each page after the last message it returned, so writes
+ * between pages neither repeat nor skip the messages it has yet to reach.
+ */
+class PagedMessageCursor implements MessageCursor {
+
+    /**
+     * How many messages a cursor copies out at a time.
+     */
+    static final int PAGE_SIZE = 500;
+
+    /**
+     * Reads the page strictly after the (afterEpoch, afterId) position, in the cursor's order.
+     */
+    interface Pager {
+        List<Message> page(long afterEpoch, int afterId, int limit);
+    }
+
+    private final Pager pager;
+    private long afterEpoch = Long.MIN_VALUE;
+    private int afterId;
+    private Iterator<Message> page;
+    private boolean last;
+
+    PagedMessageCursor(Pager pager, int afterId) {
+        this.pager = pager;
+        this.afterId = afterId;
+    }
+
+    @Override
+    public Message next() {
+        while (page == null || !page.hasNext()) {
+            if (last) {
+                return null;
+            }
+            List<Message> messages = pager.page(afterEpoch, afterId, PAGE_SIZE);
+            last = messages.size() < PAGE_SIZE;
+            page = messages.iterator();
+        }
+        Message message = page.next();
+        afterEpoch = message.getTime_posted_epoch();
+        afterId = message.getMessage_id();
+        return message;
+    }
+
+    @Override
+    public void close() {
+        page = null;
+        last = true;
+    }
+}
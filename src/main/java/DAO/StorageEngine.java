@@ -0,0 +1,81 @@
+package DAO;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+/**
+ * Picks the stores the services run on, from the storage.engine system property:
+ *
+ *   h2        (default) every call is a query against the H2 tables
+ *   columnar  messages are served from a ColumnarMessageStore in memory, written through to H2
+ *   log       messages are kept in a LogMessageStore, an append-only log of memory-mapped files, and not in H2 at all
+ *
+ * The log engine is tuned with messages.log.dir (default ./data/messages), messages.log.segmentBytes (default 64 MB),
+ * messages.log.flushMillis (default 1000; 0 forces every write to disk before it returns),
+ * messages.log.compactSeconds (default 60) and messages.log.compactDeadPercent (default 50). Only one store may have
+ * the log open, so every service in the process shares the same one, and it is closed when the JVM shuts down.
+ *
+ * Accounts stay in H2 with every engine.
+ */
+public class StorageEngine {
+
+    private static final String ENGINE = System.getProperty("storage.engine", "h2");
+
+    /**
+     * The one store for the log engine, opened on first use.
+     */
+    private static LogMessageStore logStore = null;
+
+    /**
+     * Thrown when the configured store cannot be opened. The server should not start without one.
+     */
+    public static class StorageException extends RuntimeException {
+        public StorageException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * @return a new message store for the configured engine, already loaded if it keeps messages in memory
+     * @throws StorageException if storage.engine is not a known engine, or its store could not be loaded
+     */
+    public static MessageStore newMessageStore() {
+        switch (ENGINE) {
+            case "h2":
+                return new MessageDAO();
+            case "columnar":
+                try {
+                    return new ColumnarMessageStore(new MessageDAO());
+                } catch (SQLException e) {
+                    throw new StorageException("Could not load messages into the columnar store: " + e.getMessage(),
+                            e);
+                }
+            case "log":
+                return getLogStore();
+            default:
+                throw new StorageException("storage.engine must be h2, columnar or log, not " + ENGINE, null);
+        }
+    }
+
+    public static AccountStore newAccountStore() {
+        return new AccountDAO();
+    }
+
+    private static synchronized LogMessageStore getLogStore() {
+        if (logStore == null) {
+            try {
+                logStore = new LogMessageStore(Paths.get(System.getProperty("messages.log.dir", "./data/messages")),
+                        Integer.getInteger("messages.log.segmentBytes", 64 * 1024 * 1024),
+                        Long.getLong("messages.log.flushMillis", 1000),
+                        Long.getLong("messages.log.compactSeconds", 60),
+                        Integer.getInteger("messages.log.compactDeadPercent", 50),
+                        newAccountStore());
+            } catch (IOException e) {
+                throw new StorageException("Could not open the message log: " + e.getMessage(), e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(logStore::close, "message-log-shutdown"));
+        }
+        return logStore;
+    }
+}
@@ -0,0 +1,40 @@
+package Model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The outcome of one message in a POST /messages/batch request: either the id it was stored under or the reason it
+ * was rejected. index is the position of the message in the request array.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageBatchResult {
+    private final int index;
+    private final Integer message_id;
+    private final String error;
+
+    private MessageBatchResult(int index, Integer message_id, String error) {
+        this.index = index;
+        this.message_id = message_id;
+        this.error = error;
+    }
+
+    public static MessageBatchResult created(int index, int message_id) {
+        return new MessageBatchResult(index, message_id, null);
+    }
+
+    public static MessageBatchResult rejected(int index, String error) {
+        return new MessageBatchResult(index, null, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Integer getMessage_id() {
+        return message_id;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,34 @@
+package Model;
+
+import java.util.List;
+
+/**
+ * One page of messages from a keyset (cursor) query, plus the cursor to pass back to get the page after it.
+ */
+public class MessagePage {
+    /**
+     * The messages on this page, in cursor order.
+     */
+    private final List<Message> messages;
+    /**
+     * The cursor for the next page, or null if this is the last page.
+     */
+    private final String next;
+
+    public MessagePage(List<Message> messages, String next) {
+        this.messages = messages;
+        this.next = next;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
@@ -1,35 +1,82 @@
 package Service;
 
 import Model.Account;
-import DAO.AccountDAO;
+import DAO.AccountStore;
+import DAO.StorageEngine;
+import Util.BloomFilter;
 import java.util.List;
 
 public class AccountService {
-    
-    private AccountDAO accountDAO;
+
+    private AccountStore accountStore;
+    /**
+     * Every username this service has seen, so most checks for a free name can be answered without touching the
+     * database. Building it reads every username at startup, and only usernameExists uses it, which no route calls
+     * yet, so it is off unless -Daccounts.bloom.enabled=true. Null when it is off.
+     */
+    private BloomFilter knownUsernames;
+
+    public static class DuplicateUsernameException extends RuntimeException {
+        public DuplicateUsernameException(String message) {
+            super(message);
+        }
+    }
 
     public AccountService() {
-        accountDAO = new AccountDAO();
+        accountStore = StorageEngine.newAccountStore();
+        if (Boolean.getBoolean("accounts.bloom.enabled")) {
+            knownUsernames = new BloomFilter(Long.getLong("accounts.bloom.expected", 100_000), 0.01);
+            accountStore.forEachUsername(knownUsernames::add);
+        }
     }
 
-    public Account createAccount(Account account) {
-        return accountDAO.createAccount(account);
+    /**
+     * @return the created account, or null if it could not be stored
+     * @throws DuplicateUsernameException if the username is already taken
+     */
+    public Account createAccount(Account account) throws DuplicateUsernameException {
+        try {
+            Account createdAccount = accountStore.createAccount(account);
+            if (createdAccount != null && knownUsernames != null) {
+                knownUsernames.add(createdAccount.getUsername());
+            }
+            return createdAccount;
+        } catch (AccountStore.DuplicateUsernameException e) {
+            if (knownUsernames != null) {
+                knownUsernames.add(account.getUsername());
+            }
+            throw new DuplicateUsernameException(e.getMessage());
+        }
     }
 
     public Account getAccountById(int id) {
-        return accountDAO.getAccountById(id);
+        return accountStore.getAccountById(id);
     }
 
     public Account getAccountByUsername(String username) {
-        return accountDAO.getAccountByUsername(username);
+        return accountStore.getAccountByUsername(username);
+    }
+
+    /**
+     * Existence check for posted_by. Known ids are answered from memory without fetching the account row.
+     */
+    public boolean accountExists(int accountId) {
+        return accountStore.accountExists(accountId);
     }
 
     public List<Account> getAllAccounts() {
-        return accountDAO.getAllAccounts();
+        return accountStore.getAllAccounts();
     }
 
+    /**
+     * The Bloom filter never misses a name that was registered through this service, so a negative answer from it is
+     * final. Anything else is settled with an indexed lookup on the unique username column.
+     */
     public boolean usernameExists(String username) {
-        return getAllAccounts().stream().anyMatch(account -> account.getUsername().equals(username));
+        if (knownUsernames != null && !knownUsernames.mightContain(username)) {
+            return false;
+        }
+        return accountStore.usernameExists(username);
     }
 
     public Account getAccountByUsernameAndPassword(String username, String password) {
@@ -40,5 +87,5 @@ public class AccountService {
             return null;
         }
     }
-    
-}
\ No newline at end of file
+
+}
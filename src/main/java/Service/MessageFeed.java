@@ -0,0 +1,177 @@
+package Service;
+
+import Model.Message;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fans out created, updated and deleted message events to live subscribers, such as the /messages/stream clients.
+ *
+ * Publishing never blocks the writer. Each subscriber has its own bounded queue, and a subscriber whose queue is full
+ * has fallen too far behind: it is closed and marked overflowed rather than allowed to hold more memory or slow the
+ * other subscribers down. It is then up to the client to reconnect and catch up through the regular read endpoints.
+ */
+public class MessageFeed {
+
+    /**
+     * Queued behind a subscriber's last event to wake its reader when the subscription is closed.
+     */
+    private static final Event CLOSED = new Event(null, null, 0);
+
+    private final int capacity;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    public enum EventType {
+        CREATED("created"), UPDATED("updated"), DELETED("deleted");
+
+        private final String eventName;
+
+        EventType(String eventName) {
+            this.eventName = eventName;
+        }
+
+        /**
+         * @return the name the event is sent under on the wire
+         */
+        public String getEventName() {
+            return eventName;
+        }
+    }
+
+    public static class Event {
+        private final EventType type;
+        private final Message message;
+        private final long sequence;
+
+        public Event(EventType type, Message message, long sequence) {
+            this.type = type;
+            this.message = message;
+            this.sequence = sequence;
+        }
+
+        public EventType getType() {
+            return type;
+        }
+
+        /**
+         * @return the message after the change, or as it was just before it was deleted
+         */
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the message table's change count once this change was made
+         */
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * One subscriber's queue of events. Only one thread should read from it.
+     */
+    public class Subscription implements AutoCloseable {
+        private final Integer postedBy;
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(capacity);
+        private volatile boolean closed;
+        private volatile boolean overflowed;
+
+        private Subscription(Integer postedBy) {
+            this.postedBy = postedBy;
+        }
+
+        /**
+         * Waits for the next event.
+         * @return the event, or null if none arrived in time or the subscription has been closed
+         */
+        public Event next(long timeout, TimeUnit unit) throws InterruptedException {
+            if (closed) {
+                return null;
+            }
+            Event event = queue.poll(timeout, unit);
+            return event == CLOSED ? null : event;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * @return true if the subscription was closed because its reader could not keep up
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            subscriptions.remove(this);
+            // the queued events will never be read, and the reader has to wake up now rather than at its timeout
+            while (!queue.offer(CLOSED)) {
+                queue.clear();
+            }
+        }
+
+        private void offer(Event event) {
+            if (postedBy != null && postedBy != event.getMessage().getPosted_by()) {
+                return;
+            }
+            if (!closed && !queue.offer(event)) {
+                overflowed = true;
+                close();
+            }
+        }
+    }
+
+    /**
+     * @param capacity most events a subscriber may fall behind by before it is disconnected
+     */
+    public MessageFeed(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    /**
+     * @param postedBy only events for messages by this account, or null for every message
+     */
+    public Subscription subscribe(Integer postedBy) {
+        Subscription subscription = new Subscription(postedBy);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void publish(EventType type, Message message, long sequence) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        Event event = new Event(type, message, sequence);
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Closes every subscription, waking their readers.
+     */
+    public void closeAll() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package Service;
+
+import Model.Message;
+import Model.MessagePage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory inverted index over message_text, for word search without scanning the message table.
+ *
+ * Text is split into tokens at every character that is not a letter or digit, and lower-cased. Each token maps to a
+ * posting list of the messages containing it, kept sorted newest first (time_posted_epoch, then message_id, both
+ * descending). A query for several tokens walks the shortest posting list in order and keeps the messages every other
+ * list contains, so results come out already ranked by recency and a page stops as soon as it is full. The cost
+ * depends on the page size and the rarest token, not on the number of messages.
+ *
+ * Changes to one message are serialized, but a search running alongside an update may briefly miss that message.
+ */
+public class MessageSearchIndex {
+
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator
+            .comparingLong((Entry entry) -> entry.timePostedEpoch).reversed()
+            .thenComparing(Comparator.comparingInt((Entry entry) -> entry.messageId).reversed());
+
+    private final Map<String, PostingList> postings = new ConcurrentHashMap<>();
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * What the index keeps of one message. Entries are never modified, so a search can hand them out safely.
+     */
+    private static final class Entry {
+        private final int messageId;
+        private final int postedBy;
+        private final String messageText;
+        private final long timePostedEpoch;
+        private final String[] tokens;
+
+        private Entry(int messageId, int postedBy, String messageText, long timePostedEpoch) {
+            this.messageId = messageId;
+            this.postedBy = postedBy;
+            this.messageText = messageText;
+            this.timePostedEpoch = timePostedEpoch;
+            this.tokens = tokenize(messageText);
+        }
+
+        private Message toMessage() {
+            return new Message(messageId, postedBy, messageText, timePostedEpoch);
+        }
+    }
+
+    /**
+     * ConcurrentSkipListSet.size() walks the whole set, so the length is kept alongside it.
+     */
+    private static final class PostingList {
+        private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+        private final AtomicInteger size = new AtomicInteger();
+    }
+
+    /**
+     * Adds a message, or replaces what the index holds for its id.
+     */
+    public void add(Message message) {
+        if (message == null || message.getMessage_text() == null) {
+            return;
+        }
+        Entry entry = new Entry(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+        entries.compute(entry.messageId, (id, previous) -> {
+            if (previous != null) {
+                unlink(previous);
+            }
+            link(entry);
+            return entry;
+        });
+    }
+
+    /**
+     * Replaces a message's text and time, keeping its author.
+     */
+    public void update(int messageId, String messageText, long timePostedEpoch) {
+        entries.computeIfPresent(messageId, (id, previous) -> {
+            Entry entry = new Entry(messageId, previous.postedBy, messageText, timePostedEpoch);
+            unlink(previous);
+            link(entry);
+            return entry;
+        });
+    }
+
+    public void remove(int messageId) {
+        entries.computeIfPresent(messageId, (id, previous) -> {
+            unlink(previous);
+            return null;
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Messages containing every token of query, newest first.
+     * @param beforeEpoch only messages posted before this time, or at this time with an id below beforeId
+     * @param beforeId tie-breaker for messages sharing beforeEpoch
+     * @param limit most messages to return
+     * @return the page, whose next cursor is "time_posted_epoch:message_id" of its last message; a query with no
+     * tokens matches nothing
+     */
+    public MessagePage search(String query, long beforeEpoch, int beforeId, int limit) {
+        String[] tokens = tokenize(query);
+        if (tokens.length == 0) {
+            return new MessagePage(new ArrayList<>(), null);
+        }
+        PostingList[] lists = new PostingList[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            lists[i] = postings.get(tokens[i]);
+            if (lists[i] == null) {
+                return new MessagePage(new ArrayList<>(), null);
+            }
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size.get()));
+
+        Entry from = new Entry(beforeId, 0, "", beforeEpoch);
+        List<Message> messages = new ArrayList<>(Math.min(limit, 64));
+        Entry last = null;
+        for (Entry entry : lists[0].entries.tailSet(from, false)) {
+            if (!containedInAll(entry, lists)) {
+                continue;
+            }
+            if (messages.size() == limit) {
+                return new MessagePage(messages, last.timePostedEpoch + ":" + last.messageId);
+            }
+            messages.add(entry.toMessage());
+            last = entry;
+        }
+        return new MessagePage(messages, null);
+    }
+
+    private static boolean containedInAll(Entry entry, PostingList[] lists) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].entries.contains(entry)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void link(Entry entry) {
+        for (String token : entry.tokens) {
+            postings.compute(token, (key, list) -> {
+                if (list == null) {
+                    list = new PostingList();
+                }
+                if (list.entries.add(entry)) {
+                    list.size.incrementAndGet();
+                }
+                return list;
+            });
+        }
+    }
+
+    private void unlink(Entry entry) {
+        for (String token : entry.tokens) {
+            // an emptied list is dropped, under the same lock link uses, so a token cannot be orphaned mid-add
+            postings.computeIfPresent(token, (key, list) -> {
+                if (list.entries.remove(entry)) {
+                    list.size.decrementAndGet();
+                }
+                return list.entries.isEmpty() ? null : list;
+            });
+        }
+    }
+
+    /**
+     * @return the distinct lower-cased runs of letters and digits in text, in order of first appearance
+     */
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+}
@@ -1,86 +1,478 @@
 package Service;
 
 import Model.Message;
-import DAO.MessageDAO;
+import Model.MessagePage;
+import DAO.MessageCursor;
+import DAO.MessageStore;
+import DAO.StorageEngine;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.security.SecureRandom;
+import java.sql.SQLException;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 public class MessageService {
 
-    private MessageDAO messageDAO;
-    private List<Message> messagesCache;
+    /**
+     * Page size used when the client does not ask for one.
+     */
+    public static final int DEFAULT_PAGE_SIZE = Integer.getInteger("messages.page.default", 100);
+    /**
+     * Hard cap on the page size, so no single request can pull the whole table into memory.
+     */
+    public static final int MAX_PAGE_SIZE = Integer.getInteger("messages.page.max", 1000);
+    /**
+     * Most messages a single POST /messages/batch request may carry.
+     */
+    public static final int MAX_BATCH_SIZE = Integer.getInteger("messages.batch.max", 1000);
+
+    /**
+     * How many messages the read cache holds before it starts evicting.
+     */
+    private static final long CACHE_SIZE = Long.getLong("messages.cache.size", 10_000);
+    /**
+     * How long a lookup of a missing id is remembered. Ids only come into existence through createMessage, which
+     * replaces the entry, so this mainly bounds how long a failed read is served from the cache.
+     */
+    private static final long NEGATIVE_TTL_NANOS =
+            TimeUnit.SECONDS.toNanos(Long.getLong("messages.cache.negativeTtlSeconds", 30));
+
+    /**
+     * Number of per-message version slots; a power of two so an id maps to its slot with a mask.
+     */
+    private static final int VERSION_STRIPES = 8192;
+    /**
+     * Number of locks that order the writes to one message; a power of two, like VERSION_STRIPES.
+     */
+    private static final int WRITE_LOCK_STRIPES = 256;
+
+    /**
+     * The H2 tables or an in-memory store over them, chosen with -Dstorage.engine (see StorageEngine).
+     */
+    private MessageStore messageStore;
+    /**
+     * Read-through cache for getMessageById, keyed by message_id. An empty Optional records an id that does not
+     * exist. Eviction is Caffeine's size-bounded W-TinyLFU, so a burst of one-off reads cannot flush hot messages.
+     * Cached messages are never handed out directly, because callers are free to modify what they get back.
+     */
+    private Cache<Integer, Optional<Message>> messageCache;
+    /**
+     * Group commit queue for new posts, turned on with -Dmessages.writeBehind=true. Null when it is off. Tuned with
+     * messages.writeBehind.batchSize (default 256), messages.writeBehind.lingerMillis (default 2) and
+     * messages.writeBehind.queue (default 10000).
+     */
+    private MessageWriteBehind writeBehind;
+    /**
+     * Word index over every message, for searchMessages. Built from the table when the service starts and kept up to
+     * date by every write that goes through this service.
+     */
+    private MessageSearchIndex searchIndex;
+    /**
+     * Versions for conditional GETs. changeCount goes up after every write through this service commits, and each
+     * message's stripe of messageVersions is raised to the count of the last write that touched it. Ids share stripes,
+     * so a write can make a neighbour look changed, but never the other way round. instanceId sets these apart from the
+     * versions of an earlier process, whose counts started from zero as well.
+     */
+    private final long instanceId = new SecureRandom().nextLong();
+    private final AtomicLong changeCount = new AtomicLong();
+    private final AtomicLongArray messageVersions = new AtomicLongArray(VERSION_STRIPES);
+    /**
+     * Live change events for /messages/stream. A subscriber may fall messages.stream.buffer events behind (default
+     * 256) before it is disconnected.
+     */
+    private final MessageFeed feed = new MessageFeed(Integer.getInteger("messages.stream.buffer", 256));
+    /**
+     * Held by an update or delete from its database write until the cache, the search index and the feed have caught
+     * up, so two writes to the same message cannot apply their side effects in the opposite order to their commits.
+     * Ids share stripes, so unrelated messages sometimes wait on each other, but only for one write.
+     */
+    private final Object[] writeLocks = new Object[WRITE_LOCK_STRIPES];
+    /**
+     * Held while a change takes its version and is published, so subscribers get events in sequence order.
+     */
+    private final Object changeOrder = new Object();
 
     public MessageService() {
-        messageDAO = new MessageDAO();
-        messagesCache = new ArrayList<>();
+        this(StorageEngine.newMessageStore());
     }
 
-    public Message createMessage(Message message) {
-        return messageDAO.createMessage(message);
+    /**
+     * @param messageStore the store to run on instead of the one storage.engine picks
+     */
+    public MessageService(MessageStore messageStore) {
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new Object();
+        }
+        this.messageStore = messageStore;
+        messageCache = Caffeine.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .expireAfter(new Expiry<Integer, Optional<Message>>() {
+                    @Override
+                    public long expireAfterCreate(Integer id, Optional<Message> message, long currentTime) {
+                        return message.isPresent() ? Long.MAX_VALUE : NEGATIVE_TTL_NANOS;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Integer id, Optional<Message> message, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(id, message, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Integer id, Optional<Message> message, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        if (Boolean.getBoolean("messages.writeBehind")) {
+            writeBehind = new MessageWriteBehind(this::createMessages, this::createMessage,
+                    Integer.getInteger("messages.writeBehind.batchSize", 256),
+                    Long.getLong("messages.writeBehind.lingerMillis", 2),
+                    Integer.getInteger("messages.writeBehind.queue", 10_000));
+        }
+        searchIndex = new MessageSearchIndex();
+        try (MessageCursor cursor = messageStore.openMessagesCursor(0)) {
+            Message message;
+            while ((message = cursor.next()) != null) {
+                searchIndex.add(message);
+            }
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * @throws AccountNotFoundException if posted_by does not refer to an account
+     */
+    public Message createMessage(Message message) throws AccountNotFoundException {
+        Message createdMessage;
+        try {
+            createdMessage = messageStore.createMessage(message);
+        } catch (MessageStore.AccountNotFoundException e) {
+            throw new AccountNotFoundException(e.getMessage());
+        }
+        if (createdMessage != null) {
+            messageCache.put(createdMessage.getMessage_id(), Optional.of(copyOf(createdMessage)));
+            searchIndex.add(createdMessage);
+            recordChange(MessageFeed.EventType.CREATED, createdMessage);
+        }
+        return createdMessage;
     }  
 
+    public boolean isWriteBehindEnabled() {
+        return writeBehind != null;
+    }
+
+    /**
+     * Queues an already validated message for the write-behind writer, or stores it straight away when write-behind
+     * is off.
+     * @return a future completed with the stored message once it has committed, with null if it could not be stored,
+     * or exceptionally with AccountNotFoundException
+     * @throws RejectedExecutionException if the write-behind queue is full
+     */
+    public CompletableFuture<Message> submitMessage(Message message) throws RejectedExecutionException {
+        if (writeBehind != null) {
+            return writeBehind.submit(message);
+        }
+        try {
+            return CompletableFuture.completedFuture(createMessage(message));
+        } catch (AccountNotFoundException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Writes out anything still queued for write-behind and stops its writer.
+     */
+    public void shutdown() throws InterruptedException {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+        }
+    }
+
+    /**
+     * Stores already validated messages in one transaction.
+     * @return the messages with their ids filled in, or null if nothing was stored
+     * @throws AccountNotFoundException if any posted_by does not refer to an account; nothing is stored
+     */
+    public List<Message> createMessages(List<Message> messages) throws AccountNotFoundException {
+        List<Message> createdMessages;
+        try {
+            createdMessages = messageStore.createMessages(messages);
+        } catch (MessageStore.AccountNotFoundException e) {
+            throw new AccountNotFoundException(e.getMessage());
+        }
+        if (createdMessages != null) {
+            for (Message createdMessage : createdMessages) {
+                messageCache.put(createdMessage.getMessage_id(), Optional.of(copyOf(createdMessage)));
+                searchIndex.add(createdMessage);
+                recordChange(MessageFeed.EventType.CREATED, createdMessage);
+            }
+        }
+        return createdMessages;
+    }
+
     public static class MessageNotFoundException extends RuntimeException {
         public MessageNotFoundException(String message) {
             super(message);
         }
     }
+
+    public static class AccountNotFoundException extends RuntimeException {
+        public AccountNotFoundException(String message) {
+            super(message);
+        }
+    }
     
     public Message getMessageById(int id) {
-        Message message = messageDAO.getMessageById(id);
-        if (message == null) {
+        // concurrent misses on the same id share a single database read
+        Optional<Message> message = messageCache.get(id, key -> Optional.ofNullable(messageStore.getMessageById(key)));
+        if (message.isEmpty()) {
             throw new MessageNotFoundException("Message not found");
         }
-        return message;
+        return copyOf(message.get());
     }    
     
     public List<Message> getMessagesByUserId(int posted_by) {
-        return messageDAO.getMessagesByUserId(posted_by);
+        return messageStore.getMessagesByUserId(posted_by);
     }
 
     public List<Message> getAllMessages() {
-        List<Message> messages = messageDAO.getAllMessages();
+        List<Message> messages = messageStore.getAllMessages();
         if (messages == null) {
             return Collections.emptyList();
         }
         return messages;
     }   
 
+    /**
+     * @param afterId the cursor from the previous page, or 0 for the first page
+     * @param limit the requested page size, which is capped at MAX_PAGE_SIZE
+     */
+    public MessagePage getMessagesPage(int afterId, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        // one extra row tells us whether there is a next page without a second query
+        List<Message> messages = messageStore.getMessagesAfter(afterId, pageSize + 1);
+        if (messages.size() <= pageSize) {
+            return new MessagePage(messages, null);
+        }
+        messages = messages.subList(0, pageSize);
+        return new MessagePage(messages, String.valueOf(messages.get(pageSize - 1).getMessage_id()));
+    }
+
+    /**
+     * Oldest-first page of the messages posted in [sinceEpoch, untilEpoch). An untilEpoch of Long.MAX_VALUE means no
+     * upper bound, so messages posted at Long.MAX_VALUE are included.
+     * @param afterEpoch time of the last message on the previous page, or Long.MIN_VALUE for the first page
+     * @param afterId id of the last message on the previous page
+     * @param limit the requested page size, which is capped at MAX_PAGE_SIZE
+     */
+    public MessagePage getMessagesBetweenPage(long sinceEpoch, long untilEpoch, long afterEpoch, int afterId,
+                                              int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        List<Message> messages = messageStore.getMessagesBetween(sinceEpoch, untilEpoch, afterEpoch, afterId,
+                pageSize + 1);
+        if (messages.size() <= pageSize) {
+            return new MessagePage(messages, null);
+        }
+        messages = messages.subList(0, pageSize);
+        Message last = messages.get(pageSize - 1);
+        return new MessagePage(messages, last.getTime_posted_epoch() + ":" + last.getMessage_id());
+    }
+
+    /**
+     * Newest-first page of one account's messages.
+     * @param sinceEpoch oldest time_posted_epoch to include, or Long.MIN_VALUE for no lower bound
+     * @param beforeEpoch only messages posted before this time, or at this time with an id below beforeId
+     * @param beforeId tie-breaker for messages sharing beforeEpoch
+     * @param limit the requested page size, which is capped at MAX_PAGE_SIZE
+     */
+    public MessagePage getMessagesByUserIdPage(int posted_by, long sinceEpoch, long beforeEpoch, int beforeId,
+                                               int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        List<Message> messages = messageStore.getMessagesByUserIdBefore(posted_by, sinceEpoch, beforeEpoch, beforeId,
+                pageSize + 1);
+        if (messages.size() <= pageSize) {
+            return new MessagePage(messages, null);
+        }
+        messages = messages.subList(0, pageSize);
+        Message last = messages.get(pageSize - 1);
+        return new MessagePage(messages, last.getTime_posted_epoch() + ":" + last.getMessage_id());
+    }
+
+    /**
+     * Newest-first page of the messages containing every word of query, answered from the in-memory search index.
+     * @param beforeEpoch only messages posted before this time, or at this time with an id below beforeId
+     * @param beforeId tie-breaker for messages sharing beforeEpoch
+     * @param limit the requested page size, which is capped at MAX_PAGE_SIZE
+     */
+    public MessagePage searchMessages(String query, long beforeEpoch, int beforeId, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        return searchIndex.search(query, beforeEpoch, beforeId, pageSize);
+    }
+
+    /**
+     * Streams every message after afterId. The caller must close the cursor.
+     */
+    public MessageCursor openMessagesCursor(int afterId) throws SQLException {
+        return messageStore.openMessagesCursor(afterId);
+    }
+
+    /**
+     * Streams every message posted by posted_by. The caller must close the cursor.
+     */
+    public MessageCursor openMessagesByUserIdCursor(int posted_by) throws SQLException {
+        return messageStore.openMessagesByUserIdCursor(posted_by);
+    }
+
+    /**
+     * Overwrites a message's text and time in a single UPDATE.
+     */
     public boolean updateMessage(Message message) throws MessageNotFoundException {
         int messageId = message.getMessage_id();
-        Message existingMessage = messageDAO.getMessageById(messageId);
-        if (existingMessage == null) {
-            throw new MessageNotFoundException("Message not found with ID: " + messageId);
-        } else {
-            existingMessage.setMessage_text(message.getMessage_text());
-            existingMessage.setTime_posted_epoch(message.getTime_posted_epoch());
-            return messageDAO.updateMessage(existingMessage);
+        synchronized (writeLockFor(messageId)) {
+            boolean updated = messageStore.updateMessage(message);
+            messageCache.invalidate(messageId);
+            if (!updated) {
+                throw new MessageNotFoundException("Message not found with ID: " + messageId);
+            }
+            searchIndex.update(messageId, message.getMessage_text(), message.getTime_posted_epoch());
+            // the caller's message need not carry posted_by, which subscribers filter on, so they get the stored row
+            Message storedMessage = feed.hasSubscribers() ? messageStore.getMessageById(messageId) : null;
+            recordChange(MessageFeed.EventType.UPDATED, storedMessage != null ? storedMessage : message);
+            return true;
+        }
+    }
+
+    /**
+     * Changes a message's text in one database round trip.
+     * @return the full updated message, or null if there is no message with that id
+     */
+    public Message updateMessageText(int messageId, String messageText) {
+        synchronized (writeLockFor(messageId)) {
+            Message updatedMessage = messageStore.updateMessageText(messageId, messageText);
+            if (updatedMessage != null) {
+                messageCache.put(messageId, Optional.of(copyOf(updatedMessage)));
+                searchIndex.add(updatedMessage);
+                recordChange(MessageFeed.EventType.UPDATED, updatedMessage);
+            } else {
+                messageCache.invalidate(messageId);
+            }
+            return updatedMessage;
         }
     }
     
+    /**
+     * Deletes a message in one database round trip.
+     * @return the message as it was before it was deleted, or null if there was no message with that id
+     */
     public Message deleteMessage(int messageId) {
-        Message message = messageDAO.getMessageById(messageId);
-        if (message != null) {
-            boolean deleted = messageDAO.deleteMessage(messageId);
-            if (deleted) {
-                return message;
+        synchronized (writeLockFor(messageId)) {
+            Message deletedMessage = messageStore.deleteMessage(messageId);
+            messageCache.put(messageId, Optional.empty());
+            searchIndex.remove(messageId);
+            if (deletedMessage != null) {
+                recordChange(MessageFeed.EventType.DELETED, deletedMessage);
             }
+            return deletedMessage;
         }
-        return null;
     }  
     
     public Message getMessageByDetails(int postedBy, String messageText, long timePostedEpoch) {
-        return messageDAO.getMessageByDetails(postedBy, messageText, timePostedEpoch);
+        return messageStore.getMessageByDetails(postedBy, messageText, timePostedEpoch);
     }
     
     public void removeMessageFromCache(int messageId) {
-        for (int i = 0; i < messagesCache.size(); i++) {
-            if (messagesCache.get(i).getMessage_id() == messageId) {
-                messagesCache.remove(i);
-                return;
+        messageCache.invalidate(messageId);
+    }
+
+    /**
+     * @return hit, miss and eviction counters for the message read cache
+     */
+    public CacheStats getCacheStats() {
+        return messageCache.stats();
+    }
+
+    public long getCacheSize() {
+        return messageCache.estimatedSize();
+    }
+
+    /**
+     * Subscribes to created, updated and deleted message events. The caller must close the subscription.
+     * @param postedBy only events for this account's messages, or null for every message
+     */
+    public MessageFeed.Subscription subscribe(Integer postedBy) {
+        return feed.subscribe(postedBy);
+    }
+
+    /**
+     * Disconnects every live subscriber, for server shutdown.
+     */
+    public void closeSubscriptions() {
+        feed.closeAll();
+    }
+
+    public int getSubscriberCount() {
+        return feed.getSubscriberCount();
+    }
+
+    /**
+     * Identifies this service's version counters, which start again from zero in every process.
+     */
+    public long getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return a number that changes whenever any message is created, updated or deleted through this service; read
+     * it before reading the messages it describes
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
+    /**
+     * @return a number that changes whenever this message is created, updated or deleted through this service, and
+     * sometimes when a message sharing its slot is; read it before reading the message
+     */
+    public long getMessageVersion(int messageId) {
+        return messageVersions.get(messageId & (VERSION_STRIPES - 1));
+    }
+
+    /**
+     * Called once a write has committed and the cache and index have caught up, so a version is never handed out
+     * ahead of the data it stands for. Also tells live subscribers, using the version as the event's sequence.
+     */
+    private void recordChange(MessageFeed.EventType type, Message message) {
+        // publishing only offers to the subscriber queues, so the lock is never held for long
+        synchronized (changeOrder) {
+            long version = changeCount.incrementAndGet();
+            messageVersions.accumulateAndGet(message.getMessage_id() & (VERSION_STRIPES - 1), version, Math::max);
+            if (feed.hasSubscribers()) {
+                feed.publish(type, copyOf(message), version);
             }
         }
     }
+
+    private Object writeLockFor(int messageId) {
+        return writeLocks[messageId & (WRITE_LOCK_STRIPES - 1)];
+    }
+
+    private static Message copyOf(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+    }
     
 }
\ No newline at end of file
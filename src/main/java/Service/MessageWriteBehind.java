@@ -0,0 +1,171 @@
+package Service;
+
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Group commit for new messages. Posts are put on a bounded lock-free queue. One writer thread takes them off in
+ * batches of up to batchSize, waiting up to linger for a batch to fill, and stores each batch in a single
+ * transaction. Every caller's future completes with its message, id included, once its batch has committed.
+ *
+ * Durability: a future completes only after the transaction holding its message has committed, so the message is
+ * visible to every reader from then on. H2 does not fsync on commit, though. It writes committed changes to the file
+ * in the background (WRITE_DELAY, 500ms by default), so an OS crash or power loss can still drop the last moments of
+ * acknowledged posts. That is the same guarantee a plain autocommitted insert gets. Posts still waiting in the queue
+ * when the process dies were never acknowledged and are lost. shutdown() writes everything queued before it returns.
+ */
+public class MessageWriteBehind {
+
+    private final Function<List<Message>, List<Message>> batchWriter;
+    private final Function<Message, Message> singleWriter;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int capacity;
+
+    private final Queue<PendingMessage> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * How many posts are queued. ConcurrentLinkedQueue.size() walks the whole queue, so the bound is kept here.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private static class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        private PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * @param batchWriter stores a batch in one transaction, returning null or throwing if it could not
+     * @param singleWriter stores one message, used to settle each message of a batch that failed as a whole
+     * @param batchSize most messages written in one transaction
+     * @param lingerMillis how long the writer waits for a batch to fill once it has a message; 0 writes immediately
+     * @param capacity most posts allowed to wait in the queue
+     */
+    public MessageWriteBehind(Function<List<Message>, List<Message>> batchWriter,
+                              Function<Message, Message> singleWriter, int batchSize, long lingerMillis,
+                              int capacity) {
+        this.batchWriter = batchWriter;
+        this.singleWriter = singleWriter;
+        this.batchSize = Math.max(batchSize, 1);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(lingerMillis, 0));
+        this.capacity = capacity;
+        this.writer = new Thread(this::writeLoop, "message-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return a future completed with the stored message, or exceptionally with the reason it could not be stored
+     * @throws RejectedExecutionException if the queue is full or the writer has been shut down
+     */
+    public CompletableFuture<Message> submit(Message message) throws RejectedExecutionException {
+        if (!running) {
+            throw new RejectedExecutionException("Message writer has been shut down.");
+        }
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Message queue is full.");
+        }
+        PendingMessage pending = new PendingMessage(message);
+        queue.offer(pending);
+        // shutdown may have made its last pass over the queue between the check above and the offer; if nobody has
+        // taken the post off the queue since, nobody will, so take it back
+        if (!running && queue.remove(pending)) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Message writer has been shut down.");
+        }
+        LockSupport.unpark(writer);
+        return pending.future;
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Stops taking posts, writes everything already queued and waits for the writer to finish.
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+        // a post that raced with shutdown may have got in after the writer's last look at the queue
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        for (drainInto(batch); !batch.isEmpty(); drainInto(batch)) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            drainInto(batch);
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            // give concurrent posts a moment to join this transaction
+            long deadline = System.nanoTime() + lingerNanos;
+            while (batch.size() < batchSize && running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+                drainInto(batch);
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void drainInto(List<PendingMessage> batch) {
+        PendingMessage pending;
+        while (batch.size() < batchSize && (pending = queue.poll()) != null) {
+            queued.decrementAndGet();
+            batch.add(pending);
+        }
+    }
+
+    private void write(List<PendingMessage> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingMessage pending : batch) {
+            messages.add(pending.message);
+        }
+        List<Message> created = null;
+        try {
+            created = batchWriter.apply(messages);
+        } catch (RuntimeException e) {
+            // one bad message rolls back the whole batch, so fall through and settle each one on its own
+        }
+        if (created != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(created.get(i));
+            }
+            return;
+        }
+        for (PendingMessage pending : batch) {
+            try {
+                pending.future.complete(singleWriter.apply(pending.message));
+            } catch (RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+}
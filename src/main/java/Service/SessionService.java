@@ -0,0 +1,249 @@
+package Service;
+
+import Model.Account;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Issues and checks the session tokens handed out by /login, so an authenticated request can be tied to its account
+ * without reading the account table.
+ *
+ * A token is "accountId.expiresAtMillis.nonce.signature", where the signature is an HMAC-SHA256 of the first three
+ * parts. The signature is checked first, so forged tokens never reach the store. Live sessions are kept in a
+ * concurrent map, so checking a token takes no lock shared with other requests.
+ *
+ * Every session has the same lifetime, so the order sessions were created in is also the order they expire in, and a
+ * queue of tokens in that order is all eviction needs. Expired sessions are swept off the head of the queue at most
+ * once a minute, which only ever touches the sessions being dropped. At most -Dsession.maxSessions tokens are queued
+ * (default 100000), counting sessions ended early until they reach the head, and a login past that pushes out the
+ * oldest. A flood of logins can then only cut the oldest sessions short, not grow the heap.
+ *
+ * The key comes from -Dsession.secret, or is random per process, in which case a restart ends every session. The
+ * lifetime comes from -Dsession.ttlSeconds (default 3600).
+ */
+public class SessionService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    /**
+     * Mac instances are not thread-safe, so each thread keeps its own.
+     */
+    private final ThreadLocal<Mac> macs;
+    private final int maxSessions;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * Tokens in the order their sessions were created, which is also the order they expire in. A token stays queued
+     * after its session ends early, until it reaches the head.
+     */
+    private final Queue<String> expiryOrder = new ConcurrentLinkedQueue<>();
+    /**
+     * Length of expiryOrder, which the queue itself can only count by walking it.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+    /**
+     * Held by whoever takes tokens off the head of expiryOrder, so a sweep never takes a token it has to put back.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong nextSweep;
+
+    public static class InvalidSessionException extends RuntimeException {
+        public InvalidSessionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * What the server remembers about a logged in account.
+     */
+    public static class Session {
+        private final int accountId;
+        private final String username;
+        private final long expiresAtMillis;
+
+        public Session(int accountId, String username, long expiresAtMillis) {
+            this.accountId = accountId;
+            this.username = username;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public int getAccountId() {
+            return accountId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+    }
+
+    public SessionService() {
+        this(secretFromProperties(), TimeUnit.SECONDS.toMillis(Long.getLong("session.ttlSeconds", 3600)),
+                Integer.getInteger("session.maxSessions", 100000));
+    }
+
+    /**
+     * @param maxSessions most sessions kept at once; creating one more ends the oldest
+     */
+    public SessionService(byte[] secret, long ttlMillis, int maxSessions) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.maxSessions = Math.max(maxSessions, 1);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.nextSweep = new AtomicLong(System.currentTimeMillis() + SWEEP_INTERVAL_MILLIS);
+    }
+
+    private static byte[] secretFromProperties() {
+        String secret = System.getProperty("session.secret");
+        if (secret != null && !secret.isEmpty()) {
+            return secret.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] random = new byte[32];
+        RANDOM.nextBytes(random);
+        return random;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+
+    /**
+     * Starts a session for an account that has just proved its password.
+     * @return the token the client sends back as "Authorization: Bearer token"
+     */
+    public String createSession(Account account) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        long expiresAt = now + ttlMillis;
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        String payload = account.getAccount_id() + "." + expiresAt + "." + ENCODER.encodeToString(nonce);
+        String token = payload + "." + ENCODER.encodeToString(sign(payload));
+        sessions.put(token, new Session(account.getAccount_id(), account.getUsername(), expiresAt));
+        expiryOrder.add(token);
+        if (queued.incrementAndGet() > maxSessions) {
+            evictOldest();
+        }
+        return token;
+    }
+
+    /**
+     * @return the live session for token, without touching the database
+     * @throws InvalidSessionException if the token is malformed, forged, expired or unknown
+     */
+    public Session getSession(String token) throws InvalidSessionException {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        int signatureStart = token.lastIndexOf('.');
+        if (signatureStart < 0) {
+            throw new InvalidSessionException("Malformed session token.");
+        }
+        byte[] signature;
+        try {
+            signature = DECODER.decode(token.substring(signatureStart + 1));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidSessionException("Malformed session token.");
+        }
+        if (!MessageDigest.isEqual(signature, sign(token.substring(0, signatureStart)))) {
+            throw new InvalidSessionException("Session token signature does not match.");
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            throw new InvalidSessionException("Unknown session.");
+        }
+        if (session.getExpiresAtMillis() <= now) {
+            sessions.remove(token);
+            throw new InvalidSessionException("Session has expired.");
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session before it expires.
+     */
+    public void endSession(String token) {
+        sessions.remove(token);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ends the oldest sessions until no more than maxSessions tokens are queued.
+     */
+    private void evictOldest() {
+        evictionLock.lock();
+        try {
+            while (queued.get() > maxSessions) {
+                String token = expiryOrder.poll();
+                if (token == null) {
+                    return;
+                }
+                queued.decrementAndGet();
+                sessions.remove(token);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Drops expired sessions from the head of the queue, stopping at the first one still live. Only the caller that
+     * wins the race for the next sweep time does the work, and it skips the sweep if an eviction is under way.
+     */
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now < due || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_MILLIS) || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            String token;
+            while ((token = expiryOrder.peek()) != null) {
+                Session session = sessions.get(token);
+                if (session != null && session.getExpiresAtMillis() > now) {
+                    return;
+                }
+                expiryOrder.poll();
+                queued.decrementAndGet();
+                if (session != null) {
+                    sessions.remove(token, session);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of non-negative ints stored as one bit each, for dense ids such as auto-increment keys. Lookups are lock-free
+ * and allocate nothing. Adds are serialized, since they are rare and may need to grow the array, but never block a
+ * lookup.
+ */
+public class ConcurrentIntBitmap {
+
+    private volatile AtomicLongArray words;
+
+    public ConcurrentIntBitmap() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedMax the largest value expected at first; the bitmap grows past it as needed
+     */
+    public ConcurrentIntBitmap(int expectedMax) {
+        words = new AtomicLongArray(Math.max(1, (expectedMax >>> 6) + 1));
+    }
+
+    public synchronized void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Only non-negative values can be stored: " + value);
+        }
+        int index = value >>> 6;
+        AtomicLongArray current = words;
+        if (index >= current.length()) {
+            // double until it fits, so a run of increasing ids copies the array only a logarithmic number of times
+            int length = current.length();
+            while (length <= index) {
+                length = length > (Integer.MAX_VALUE >>> 1) ? (Integer.MAX_VALUE >>> 6) + 1 : length << 1;
+            }
+            AtomicLongArray grown = new AtomicLongArray(length);
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            words = grown;
+            current = grown;
+        }
+        long bit = 1L << value;
+        long word = current.get(index);
+        if ((word & bit) == 0) {
+            current.set(index, word | bit);
+        }
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        AtomicLongArray current = words;
+        int index = value >>> 6;
+        return index < current.length() && (current.get(index) & (1L << value)) != 0;
+    }
+}
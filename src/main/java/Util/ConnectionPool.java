@@ -0,0 +1,614 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections. Callers borrow a connection with {@link #getConnection()} and give it back by
+ * calling close() on it, so DAOs can use the usual try-with-resources block around every operation.
+ *
+ * Connections are validated when they are borrowed, and a connection that fails validation is thrown away and
+ * replaced with a new one, so the pool recovers on its own when the database drops a session. A background task
+ * reports connections that have been held for longer than the leak threshold.
+ *
+ * Each connection also keeps a small LRU cache of its prepared statements keyed by SQL text, so a DAO preparing the
+ * same query again on a warm connection gets the already prepared statement back. Closing the statement returns it
+ * to the cache with its parameters cleared. The cache belongs to the connection, and a connection has one borrower
+ * at a time, so it needs no locking.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final boolean leakTrace;
+    private final int validationTimeoutSeconds;
+    /**
+     * Most prepared statements kept per connection. 0 turns the statement cache off.
+     */
+    private final int statementCacheSize;
+
+    /**
+     * Idle connections, most recently returned first so the warmest sessions get reused.
+     */
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+    /**
+     * One permit per connection the pool is allowed to hand out. Waiting for a permit is how borrowers queue up.
+     */
+    private final Semaphore permits;
+    private final ScheduledExecutorService leakDetector;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LatencyHistogram waitHistogram = new LatencyHistogram();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder reconnectCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder statementHitCount = new LongAdder();
+    private final LongAdder statementMissCount = new LongAdder();
+    private final LongAdder statementEvictionCount = new LongAdder();
+
+    public ConnectionPool(String url, String username, String password, int maxSize, long borrowTimeoutMillis,
+                          long leakThresholdMillis, boolean leakTrace, int validationTimeoutSeconds) {
+        this(url, username, password, maxSize, borrowTimeoutMillis, leakThresholdMillis, leakTrace,
+                validationTimeoutSeconds, 64);
+    }
+
+    public ConnectionPool(String url, String username, String password, int maxSize, long borrowTimeoutMillis,
+                          long leakThresholdMillis, boolean leakTrace, int validationTimeoutSeconds,
+                          int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1.");
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.leakTrace = leakTrace;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = Math.max(statementCacheSize, 0);
+        this.permits = new Semaphore(maxSize, true);
+
+        if (leakThresholdMillis > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connection-pool-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(leakThresholdMillis / 2, 1000);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting up to the borrow timeout if every connection is in use.
+     * @return a connection which must be closed to hand it back to the pool
+     * @throws SQLException if no connection became available in time or a new one could not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMillis
+                    + "ms waiting for a database connection (pool size " + maxSize + ").");
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled = takeValidConnection();
+            Connection connection = pooled.borrow(leakTrace ? new Exception("Connection borrowed here") : null);
+            active.add(pooled);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.increment();
+        totalWaitNanos.add(waitNanos);
+        waitHistogram.record(waitNanos);
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    private PooledConnection takeValidConnection() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isUsable(pooled.physical)) {
+                return pooled;
+            }
+            // the session died while it was sitting in the pool, so replace it with a fresh one
+            reconnectCount.increment();
+            closeQuietly(pooled.physical);
+        }
+        Connection physical = DriverManager.getConnection(url, username, password);
+        createdCount.increment();
+        return new PooledConnection(physical);
+    }
+
+    private boolean isUsable(Connection physical) {
+        try {
+            return !physical.isClosed() && physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        if (!active.remove(pooled)) {
+            return;
+        }
+        try {
+            if (pooled.physical.isClosed()) {
+                return;
+            }
+            // leave the session the way the next borrower expects to find it
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            System.err.println("Discarding pooled connection: " + e.getMessage());
+            closeQuietly(pooled.physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : active) {
+            long heldFor = now - pooled.borrowedAt;
+            if (heldFor > leakThresholdMillis && !pooled.leakReported) {
+                pooled.leakReported = true;
+                leakCount.increment();
+                System.err.println("Possible connection leak: connection held by thread '" + pooled.borrowedBy
+                        + "' for " + heldFor + "ms.");
+                if (pooled.borrowSite != null) {
+                    pooled.borrowSite.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * @return a point-in-time view of the pool counters
+     */
+    public Stats getStats() {
+        long borrows = borrowCount.sum();
+        return new Stats(maxSize, active.size(), idle.size(), waiting.get(), borrows, timeoutCount.sum(),
+                borrows == 0 ? 0 : totalWaitNanos.sum() / borrows / 1000, maxWaitNanos.get() / 1000,
+                createdCount.sum(), reconnectCount.sum(), leakCount.sum(), statementHitCount.sum(),
+                statementMissCount.sum(), statementEvictionCount.sum());
+    }
+
+    /**
+     * @return how long borrowers waited for a connection, in nanoseconds
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return waitHistogram;
+    }
+
+    /**
+     * Closes every idle connection and stops the leak detector. Borrowed connections are closed when they come back.
+     */
+    public void shutdown() {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    /**
+     * The physical connection plus the bookkeeping for whoever has currently borrowed it.
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        /**
+         * Prepared statements not currently in use, least recently returned first.
+         */
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<>();
+        private volatile long borrowedAt;
+        private volatile String borrowedBy;
+        private volatile Exception borrowSite;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection borrow(Exception borrowSite) {
+            this.borrowedAt = System.currentTimeMillis();
+            this.borrowedBy = Thread.currentThread().getName();
+            this.borrowSite = borrowSite;
+            this.leakReported = false;
+            Lease lease = new Lease(this);
+            lease.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, lease);
+            return lease.proxy;
+        }
+
+        /**
+         * @return the cached statement for key, taking it out of the cache while it is in use, or null on a miss
+         */
+        private PreparedStatement takeStatement(String key) {
+            PreparedStatement statement = statements.remove(key);
+            if (statement != null) {
+                statementHitCount.increment();
+            } else {
+                statementMissCount.increment();
+            }
+            return statement;
+        }
+
+        /**
+         * Puts a statement the borrower has finished with back in the cache, evicting the least recently used one if
+         * the cache is full. Statements whose settings were changed are closed instead, so the next user does not
+         * inherit them.
+         */
+        private void returnStatement(String key, PreparedStatement statement, boolean reusable) {
+            if (!reusable || statementCacheSize == 0) {
+                closeQuietly(statement);
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                return;
+            }
+            PreparedStatement previous = statements.put(key, statement);
+            if (previous != null) {
+                // the same SQL was prepared twice at once, so there is a spare copy
+                closeQuietly(previous);
+            }
+            if (statements.size() > statementCacheSize) {
+                Iterator<PreparedStatement> eldest = statements.values().iterator();
+                closeQuietly(eldest.next());
+                eldest.remove();
+                statementEvictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * What a borrower actually holds. Each borrow gets its own lease, so a caller that keeps a reference after
+     * closing it cannot reach the session that has since been lent to someone else.
+     */
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private Connection proxy;
+        /**
+         * Cached statements handed out under this lease and not yet closed, returned to the cache when the lease ends.
+         */
+        private final List<CachedStatement> openStatements = new ArrayList<>(2);
+        private boolean closed;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        for (CachedStatement statement : new ArrayList<>(openStatements)) {
+                            statement.close();
+                        }
+                        release(pooled);
+                    }
+                    return null;
+                case "prepareStatement":
+                    if (!closed && statementCacheSize > 0 && isCacheable(method)) {
+                        return prepareCached((String) args[0], args.length == 1 ? null : (Integer) args[1]);
+                    }
+                    return invokePhysical(method, args);
+                case "isClosed":
+                    return closed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    return invokePhysical(method, args);
+            }
+        }
+
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            if (closed) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Only prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are cached; the other variants are
+         * not used by the DAOs.
+         */
+        private boolean isCacheable(Method method) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            return parameterTypes.length == 1 || (parameterTypes.length == 2 && parameterTypes[1] == int.class);
+        }
+
+        private PreparedStatement prepareCached(String sql, Integer autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == null || autoGeneratedKeys == Statement.NO_GENERATED_KEYS
+                    ? sql : "RETURN_GENERATED_KEYS " + sql;
+            PreparedStatement physical = pooled.takeStatement(key);
+            if (physical == null) {
+                physical = autoGeneratedKeys == null
+                        ? pooled.physical.prepareStatement(sql)
+                        : pooled.physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+            CachedStatement statement = new CachedStatement(this, key, physical);
+            openStatements.add(statement);
+            statement.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, statement);
+            return statement.proxy;
+        }
+    }
+
+    /**
+     * A cached prepared statement as the borrower sees it. Closing it hands the statement back to its connection's
+     * cache instead of closing it.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        private final Lease lease;
+        private final String key;
+        private final PreparedStatement physical;
+        private PreparedStatement proxy;
+        /**
+         * Set once the borrower changes a setting such as the fetch size, which would otherwise leak to the next user.
+         */
+        private boolean modified;
+        private boolean closed;
+
+        private CachedStatement(Lease lease, String key, PreparedStatement physical) {
+            this.lease = lease;
+            this.key = key;
+            this.physical = physical;
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                lease.openStatements.remove(this);
+                lease.pooled.returnStatement(key, physical, !modified);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "getConnection":
+                    return lease.proxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + physical;
+                case "setFetchSize":
+                case "setFetchDirection":
+                case "setMaxRows":
+                case "setLargeMaxRows":
+                case "setMaxFieldSize":
+                case "setQueryTimeout":
+                case "setEscapeProcessing":
+                case "setCursorName":
+                case "setPoolable":
+                case "closeOnCompletion":
+                    modified = true;
+                    break;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement has already been closed.");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Pool counters used to size the pool against real concurrency. Wait times are how long borrowers queued for a
+     * permit, in microseconds.
+     */
+    public static class Stats {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final int waiting;
+        private final long borrowCount;
+        private final long timeoutCount;
+        private final long averageWaitMicros;
+        private final long maxWaitMicros;
+        private final long createdCount;
+        private final long reconnectCount;
+        private final long leakCount;
+        private final long statementHitCount;
+        private final long statementMissCount;
+        private final long statementEvictionCount;
+
+        public Stats(int maxSize, int active, int idle, int waiting, long borrowCount, long timeoutCount,
+                     long averageWaitMicros, long maxWaitMicros, long createdCount, long reconnectCount,
+                     long leakCount, long statementHitCount, long statementMissCount, long statementEvictionCount) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.borrowCount = borrowCount;
+            this.timeoutCount = timeoutCount;
+            this.averageWaitMicros = averageWaitMicros;
+            this.maxWaitMicros = maxWaitMicros;
+            this.createdCount = createdCount;
+            this.reconnectCount = reconnectCount;
+            this.leakCount = leakCount;
+            this.statementHitCount = statementHitCount;
+            this.statementMissCount = statementMissCount;
+            this.statementEvictionCount = statementEvictionCount;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        public long getAverageWaitMicros() {
+            return averageWaitMicros;
+        }
+
+        public long getMaxWaitMicros() {
+            return maxWaitMicros;
+        }
+
+        public long getCreatedCount() {
+            return createdCount;
+        }
+
+        public long getReconnectCount() {
+            return reconnectCount;
+        }
+
+        public long getLeakCount() {
+            return leakCount;
+        }
+
+        public long getStatementHitCount() {
+            return statementHitCount;
+        }
+
+        public long getStatementMissCount() {
+            return statementMissCount;
+        }
+
+        public long getStatementEvictionCount() {
+            return statementEvictionCount;
+        }
+
+        /**
+         * @return the share of prepareStatement calls answered from the statement cache, 0 before the first call
+         */
+        public double getStatementHitRate() {
+            long requests = statementHitCount + statementMissCount;
+            return requests == 0 ? 0 : (double) statementHitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "maxSize=" + maxSize +
+                    ", active=" + active +
+                    ", idle=" + idle +
+                    ", waiting=" + waiting +
+                    ", borrowCount=" + borrowCount +
+                    ", timeoutCount=" + timeoutCount +
+                    ", averageWaitMicros=" + averageWaitMicros +
+                    ", maxWaitMicros=" + maxWaitMicros +
+                    ", createdCount=" + createdCount +
+                    ", reconnectCount=" + reconnectCount +
+                    ", leakCount=" + leakCount +
+                    ", statementHitCount=" + statementHitCount +
+                    ", statementMissCount=" + statementMissCount +
+                    ", statementEvictionCount=" + statementEvictionCount +
+                    '}';
+        }
+    }
+}
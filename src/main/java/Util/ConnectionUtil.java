@@ -5,14 +5,22 @@ import org.h2.tools.RunScript;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
- * The ConnectionUtil class will be utilized to create an active connection to our database. This class utilizes the singleton design pattern.
+ * The ConnectionUtil class will be utilized to hand out connections to our database. Connections come from a single
+ * shared {@link ConnectionPool}, so every DAO call borrows its own connection and must close it when it is done.
  * We will be utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * The pool can be tuned with system properties: db.pool.size, db.pool.timeoutMillis, db.pool.leakThresholdMillis,
+ * db.pool.leakTrace, db.pool.validationTimeoutSeconds and db.pool.statementCacheSize.
+ *
+ * The db.mode system property picks what happens to the tables when the pool is first created. "migrate", the default,
+ * leaves existing data alone and applies only the schema migrations the database has not had yet (see
+ * {@link SchemaMigrator}), so a server restart keeps its data. "reset" runs resetTestDatabase, which drops and
+ * recreates the tables empty; the test run sets it in the surefire configuration.
+ *
+ * The integration tests rely on resetTestDatabase, so its behavior must stay the same.
  */
 public class ConnectionUtil {
 
@@ -29,42 +37,85 @@ public class ConnectionUtil {
      */
     private static String password = "sa";
     /**
-     * a static object which represents the connection to h2. Because it is static, any DAO interacting
-     * with this connection object is referring to the same object.
+     * a static pool shared by every DAO. Because it is static, any DAO borrowing a connection is drawing from the
+     * same set of database sessions.
+     */
+    private static ConnectionPool pool = null;
+    /**
+     * How the tables are set up when the pool is created, "migrate" or "reset"
      */
-    private static Connection connection = null;
+    private static String mode = System.getProperty("db.mode", "migrate");
+
     /**
-     * @return an active connection to the database and set up the database tables if this is the first time the
-     * Connection has been established
+     * @return the shared pool, creating it and setting up the database tables if this is the first time it is used
+     * @throws SchemaMigrator.MigrationException in migrate mode, if the schema could not be brought up to date
      */
-    public static Connection getConnection(){
-        if(connection == null){
-            try {
-                connection = DriverManager.getConnection(url, username, password);
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            if (!mode.equals("reset") && !mode.equals("migrate")) {
+                throw new IllegalArgumentException("db.mode must be reset or migrate, not " + mode);
+            }
+            pool = new ConnectionPool(url, username, password,
+                    Integer.getInteger("db.pool.size", 10),
+                    Long.getLong("db.pool.timeoutMillis", 5000),
+                    Long.getLong("db.pool.leakThresholdMillis", 60000),
+                    Boolean.getBoolean("db.pool.leakTrace"),
+                    Integer.getInteger("db.pool.validationTimeoutSeconds", 2),
+                    Integer.getInteger("db.pool.statementCacheSize", 64));
+            if (mode.equals("migrate")) {
+                migrate();
+            } else {
                 resetTestDatabase();
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
         }
+        return pool;
+    }
 
-        return connection;
+    /**
+     * @return a connection borrowed from the pool. Closing it hands it back to the pool.
+     * @throws SQLException if no connection could be borrowed
+     */
+    public static Connection getConnection() throws SQLException {
+        return getPool().getConnection();
     }
+
+    /**
+     * @return the current pool counters, for sizing the pool under real load
+     */
+    public static ConnectionPool.Stats getPoolStats() {
+        return getPool().getStats();
+    }
+
+    /**
+     * Applies any pending schema migrations. If they fail the pool is shut down again, so the next caller retries them
+     * instead of being handed connections to a half migrated database.
+     */
+    private static void migrate() {
+        try (Connection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection);
+        } catch (SQLException | RuntimeException e) {
+            pool.shutdown();
+            pool = null;
+            if (e instanceof SchemaMigrator.MigrationException) {
+                throw (SchemaMigrator.MigrationException) e;
+            }
+            throw new SchemaMigrator.MigrationException("Schema migration failed: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * For the purpose of testing, we will need to drop and recreate our database tables to keep it consistent across
      * all tests. The method will read the sql file in resources. This will be performed before every test.
+     *
+     * SocialMedia.sql holds the same schema as the migrations under db/migration, written out in one script. A change
+     * to the schema goes in a new migration and in SocialMedia.sql both.
      */
     public static void resetTestDatabase(){
-//        if there is no connection, use the getConnection method to set it up
-        if(connection == null){
-            getConnection();
-        }else {
-//            otherwise, recreate the tables without setting up a new connection
-            try {
-                FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-                RunScript.execute(connection, sqlReader);
-            } catch (SQLException | FileNotFoundException e) {
-                e.printStackTrace();
-            }
+        try (Connection connection = getPool().getConnection()) {
+            FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
+            RunScript.execute(connection, sqlReader);
+        } catch (SQLException | FileNotFoundException e) {
+            e.printStackTrace();
         }
     }
 
@@ -0,0 +1,113 @@
+package Util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs blocking database work away from the server's request threads. It uses a virtual thread per task when the JDK
+ * has them, and a fixed pool of platform threads otherwise.
+ *
+ * The number of tasks running or waiting is capped at threads + queueLimit. Past that, submit fails straight away
+ * instead of queueing, so callers can answer 503 while the backlog is still short.
+ */
+public class DatabaseExecutor {
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final int capacity;
+    /**
+     * One permit per task allowed to be running or waiting at once.
+     */
+    private final Semaphore permits;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param threads how many tasks run at once on the platform pool; a good value is the connection pool size
+     * @param queueLimit how many more tasks may wait before new ones are rejected
+     */
+    public DatabaseExecutor(int threads, int queueLimit) {
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtualThreads = true;
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "database-executor-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            virtualThreads = false;
+        }
+        capacity = threads + queueLimit;
+        permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor only exists from Java 21 (as a preview before that), and the build
+     * targets Java 11, so it is looked up by reflection.
+     * @return a virtual thread per task executor, or null if this JDK cannot make one
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a future that completes with the result of task, or exceptionally with whatever task threw
+     * @throws RejectedExecutionException if the executor already holds as many tasks as it allows
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) throws RejectedExecutionException {
+        if (!permits.tryAcquire()) {
+            rejectedCount.increment();
+            throw new RejectedExecutionException("Database executor is full.");
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            rejectedCount.increment();
+            throw e;
+        }
+        return future;
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return tasks currently running or waiting to run
+     */
+    public int getInFlight() {
+        return capacity - permits.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
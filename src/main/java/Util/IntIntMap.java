@@ -0,0 +1,151 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from int to int with open addressing and linear probing, so a lookup is a few array reads with no boxing
+ * and no per-entry objects. Values must not be negative: get answers -1 for a missing key. Not thread-safe; callers
+ * guard it with their own lock.
+ */
+public class IntIntMap {
+
+    /**
+     * Marks a free cell. The key it stands for is kept on the side, in zeroValue.
+     */
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int zeroValue = -1;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize how many keys the map should hold before it first grows
+     */
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the value for key, or -1 if the key is not in the map
+     */
+    public int get(int key) {
+        if (key == FREE) {
+            return zeroValue;
+        }
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int found = keys[i];
+            if (found == key) {
+                return values[i];
+            }
+            if (found == FREE) {
+                return -1;
+            }
+        }
+    }
+
+    public void put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Only non-negative values can be stored: " + value);
+        }
+        if (key == FREE) {
+            if (zeroValue < 0) {
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int i = hash(key) & mask;
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == FREE) {
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                values[i] = value;
+                grow();
+                return;
+            }
+        }
+        values[i] = value;
+    }
+
+    /**
+     * @return the value the key had, or -1 if it was not in the map
+     */
+    public int remove(int key) {
+        if (key == FREE) {
+            int previous = zeroValue;
+            if (previous >= 0) {
+                size--;
+                zeroValue = -1;
+            }
+            return previous;
+        }
+        int i = hash(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == FREE) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+        int previous = values[i];
+        size--;
+        // shift later entries of the probe run back, so no lookup stops early at the hole
+        for (int next = (i + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                values[i] = values[next];
+                i = next;
+            }
+        }
+        keys[i] = FREE;
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        zeroValue = -1;
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int key = oldKeys[j];
+            if (key != FREE) {
+                int i = hash(key) & mask;
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Spreads sequential ids across the table, so runs of them do not pile up into one long probe sequence.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,186 @@
+package Util;
+
+import Model.Account;
+import Model.Message;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.javalin.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The one JSON codec for the whole API. It owns a single configured ObjectMapper and keeps ready-made readers and
+ * writers for the types the routes use, so no request pays for building a mapper or looking up serializers.
+ * It is also registered as Javalin's JsonMapper, so context.json and context.bodyAsClass go through it.
+ *
+ * Readers and writers are immutable and thread-safe, so one instance is shared by every request.
+ */
+public class JsonCodec implements JsonMapper {
+
+    private static final JsonCodec INSTANCE = new JsonCodec();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectReader accountReader = objectMapper.readerFor(Account.class);
+    /**
+     * Login bodies are read into an Account but may carry fields we do not care about, so this one is lenient.
+     */
+    private final ObjectReader credentialsReader = accountReader
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final ObjectReader messageReader = objectMapper.readerFor(Message.class);
+    private final ObjectReader messageListReader = objectMapper.readerFor(new TypeReference<List<Message>>(){});
+    private final ObjectReader treeReader = objectMapper.readerFor(JsonNode.class);
+    private final ObjectWriter accountWriter = objectMapper.writerFor(Account.class);
+    private final ObjectWriter messageWriter = objectMapper.writerFor(Message.class);
+    private final ObjectWriter messageListWriter = objectMapper.writerFor(new TypeReference<List<Message>>(){});
+    /**
+     * Readers and writers for any other type Javalin asks about, built once per type.
+     */
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    private JsonCodec() {
+        readers.put(Account.class, accountReader);
+        readers.put(Message.class, messageReader);
+        readers.put(JsonNode.class, treeReader);
+        writers.put(Account.class, accountWriter);
+        writers.put(Message.class, messageWriter);
+    }
+
+    public static JsonCodec getInstance() {
+        return INSTANCE;
+    }
+
+    public Account readAccount(byte[] json) throws IOException {
+        return accountReader.readValue(json);
+    }
+
+    public Account readCredentials(byte[] json) throws IOException {
+        return credentialsReader.readValue(json);
+    }
+
+    public Message readMessage(byte[] json) throws IOException {
+        return messageReader.readValue(json);
+    }
+
+    public List<Message> readMessages(byte[] json) throws IOException {
+        return messageListReader.readValue(json);
+    }
+
+    public JsonNode readTree(byte[] json) throws IOException {
+        return treeReader.readValue(json);
+    }
+
+    public byte[] writeAccount(Account account) {
+        return write(accountWriter, account);
+    }
+
+    public byte[] writeMessage(Message message) {
+        return write(messageWriter, message);
+    }
+
+    public byte[] writeMessages(List<Message> messages) {
+        return write(messageListWriter, messages);
+    }
+
+    public byte[] writeValue(Object value) {
+        return write(writerFor(value.getClass()), value);
+    }
+
+    /**
+     * Serializes a fixed error body once, so routes can send it without building it again on every request.
+     */
+    public static byte[] errorPayload(String error) {
+        return INSTANCE.writeValue(Map.of("error", error));
+    }
+
+    public static byte[] errorPayload(String error, int errorCode) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", error);
+        body.put("errorCode", errorCode);
+        return INSTANCE.writeValue(body);
+    }
+
+    public JsonGenerator createGenerator(OutputStream outputStream) throws IOException {
+        return objectMapper.getFactory().createGenerator(outputStream);
+    }
+
+    /**
+     * Writes one message as a JSON object without going through databind, for streaming large lists.
+     */
+    public void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("message_id", message.getMessage_id());
+        generator.writeNumberField("posted_by", message.getPosted_by());
+        generator.writeStringField("message_text", message.getMessage_text());
+        generator.writeNumberField("time_posted_epoch", message.getTime_posted_epoch());
+        generator.writeEndObject();
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        return new ByteArrayInputStream(write(writerFor(type), obj));
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type type) {
+        try {
+            return readerFor(type).readValue(json);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type type) {
+        try {
+            return readerFor(type).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ObjectReader readerFor(Type type) {
+        return readers.computeIfAbsent(type, key -> objectMapper.readerFor(javaType(key)));
+    }
+
+    private ObjectWriter writerFor(Type type) {
+        return writers.computeIfAbsent(type, key -> objectMapper.writerFor(javaType(key)));
+    }
+
+    private JavaType javaType(Type type) {
+        return objectMapper.getTypeFactory().constructType(type);
+    }
+
+    private static byte[] write(ObjectWriter writer, Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram. Buckets are log-linear: each power of two is split into
+ * 32 equal sub-buckets, so any recorded value is known to within about 3%, from nanoseconds up to hours, in a fixed
+ * array. Recording is one atomic increment plus two atomic adds, and allocates nothing.
+ *
+ * Quantiles are read from a pass over the buckets. Recorders may be adding at the same time, so a snapshot is only
+ * approximately consistent, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * Values past 2^42 ns (about 73 minutes) all land in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 42;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+    }
+
+    /**
+     * Records the time since start, where start came from System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the largest value that falls in the same bucket as the value at that quantile, or 0 if nothing has been
+     * recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Values below 32 get a bucket each. Above that, the bucket is picked by the position of the highest set bit and
+     * the five bits below it.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long mantissa = SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,158 @@
+package Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The process-wide metrics registry, exported on /metrics in the Prometheus text format.
+ *
+ * It keeps a {@link LatencyHistogram} per route and per DAO method, a count of responses by status code and the
+ * number of requests in flight. The connection pool gauges and its borrow wait histogram are read from the pool when
+ * the metrics are scraped. Histograms are created once per name and then only recorded into, so the hot path is a
+ * map lookup and a few atomic adds. Latencies are cumulative since startup and exported as summaries.
+ */
+public class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    /**
+     * Route histograms by HTTP method, then by route path as it was registered, e.g. "/messages/{id}".
+     */
+    private final Map<String, Map<String, LatencyHistogram>> routeTimers = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> daoTimers = new ConcurrentSkipListMap<>();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(600);
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param name "Class.method", e.g. "MessageDAO.createMessage"; DAOs keep the result in a static field
+     */
+    public LatencyHistogram daoTimer(String name) {
+        return daoTimers.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public LatencyHistogram routeTimer(String method, String route) {
+        Map<String, LatencyHistogram> byRoute = routeTimers.get(method);
+        if (byRoute == null) {
+            byRoute = routeTimers.computeIfAbsent(method, key -> new ConcurrentSkipListMap<>());
+        }
+        LatencyHistogram timer = byRoute.get(route);
+        if (timer == null) {
+            timer = byRoute.computeIfAbsent(route, key -> new LatencyHistogram());
+        }
+        return timer;
+    }
+
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records a finished request against its route and status code.
+     */
+    public void requestFinished(String method, String route, int status, long durationNanos) {
+        inFlight.decrementAndGet();
+        routeTimer(method, route).record(durationNanos);
+        if (status >= 0 && status < statusCounts.length()) {
+            statusCounts.incrementAndGet(status);
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getStatusCount(int status) {
+        return statusCounts.get(status);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format, version 0.0.4
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "http_request_duration_seconds", "summary", "Time to serve a request, by route.");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> method : routeTimers.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> route : method.getValue().entrySet()) {
+                summary(out, "http_request_duration_seconds",
+                        "method=\"" + method.getKey() + "\",route=\"" + escape(route.getKey()) + "\"",
+                        route.getValue());
+            }
+        }
+
+        header(out, "http_responses_total", "counter", "Responses sent, by status code.");
+        for (int status = 0; status < statusCounts.length(); status++) {
+            long count = statusCounts.get(status);
+            if (count > 0) {
+                out.append("http_responses_total{code=\"").append(status).append("\"} ").append(count).append('\n');
+            }
+        }
+
+        header(out, "http_requests_in_flight", "gauge", "Requests being served right now.");
+        out.append("http_requests_in_flight ").append(inFlight.get()).append('\n');
+
+        header(out, "dao_call_duration_seconds", "summary", "Time spent in each DAO method.");
+        for (Map.Entry<String, LatencyHistogram> dao : daoTimers.entrySet()) {
+            summary(out, "dao_call_duration_seconds", "method=\"" + dao.getKey() + "\"", dao.getValue());
+        }
+
+        ConnectionPool pool = ConnectionUtil.getPool();
+        ConnectionPool.Stats stats = pool.getStats();
+        header(out, "db_pool_connection_wait_seconds", "summary", "Time spent waiting to borrow a connection.");
+        summary(out, "db_pool_connection_wait_seconds", null, pool.getWaitHistogram());
+        gauge(out, "db_pool_connections_active", "Connections currently borrowed.", stats.getActive());
+        gauge(out, "db_pool_connections_idle", "Connections waiting in the pool.", stats.getIdle());
+        gauge(out, "db_pool_borrowers_waiting", "Threads waiting for a connection.", stats.getWaiting());
+        counter(out, "db_pool_timeouts_total", "Borrows that gave up waiting.", stats.getTimeoutCount());
+        counter(out, "db_pool_statement_cache_hits_total", "prepareStatement calls served from the cache.",
+                stats.getStatementHitCount());
+        counter(out, "db_pool_statement_cache_misses_total", "prepareStatement calls that prepared a statement.",
+                stats.getStatementMissCount());
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes a histogram of nanoseconds as a summary in seconds.
+     */
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getValueAtQuantile(quantile) / NANOS_PER_SECOND).append('\n');
+        }
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ')
+                .append(histogram.getSum() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,157 @@
+package Util;
+
+import org.h2.tools.RunScript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Brings a database up to the current schema without touching its data. Each migration is a script on the classpath
+ * under db/migration, and the versions already applied are recorded in the schema_version table, so a restart only
+ * runs the scripts it has not seen before.
+ *
+ * New migrations are added to the end of MIGRATIONS with the next version number. A script that has been applied must
+ * never be edited: its checksum is recorded, and a mismatch stops startup. H2 commits DDL as it goes, so a script
+ * interrupted part way is run again from the top on the next start, which is why every statement in one has to be
+ * safe to repeat ("if not exists" and the like).
+ *
+ * The tests reset the database from SocialMedia.sql instead, which spells out the same schema in one script. A new
+ * migration has to be mirrored there, or the tests run against a different schema than the server.
+ */
+public class SchemaMigrator {
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "create account and message", "db/migration/V1__create_account_and_message.sql"),
+            new Migration(2, "message posted_by time index", "db/migration/V2__message_posted_by_time_index.sql"),
+            new Migration(3, "message time index", "db/migration/V3__message_time_index.sql"));
+
+    private static final String CREATE_VERSION_TABLE = "create table if not exists schema_version ("
+            + "version int primary key, description varchar(255), checksum bigint, "
+            + "installed_on timestamp default current_timestamp)";
+
+    /**
+     * Thrown when the schema cannot be brought up to date. The server should not start against such a database.
+     */
+    public static class MigrationException extends RuntimeException {
+        public MigrationException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String resource;
+
+        private Migration(int version, String description, String resource) {
+            this.version = version;
+            this.description = description;
+            this.resource = resource;
+        }
+
+        private String read() {
+            try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new MigrationException("Migration script " + resource + " is missing.", null);
+                }
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new MigrationException("Migration script " + resource + " could not be read.", e);
+            }
+        }
+    }
+
+    /**
+     * Applies every migration the database has not had yet, in version order.
+     * @return the number of migrations applied
+     * @throws MigrationException if a script fails, or one already applied has since been changed
+     */
+    public static int migrate(Connection connection) {
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_VERSION_TABLE);
+            }
+            Map<Integer, Long> applied = getAppliedVersions(connection);
+            int count = 0;
+            for (Migration migration : MIGRATIONS) {
+                String script = migration.read();
+                long checksum = checksum(script);
+                Long appliedChecksum = applied.get(migration.version);
+                if (appliedChecksum != null) {
+                    if (appliedChecksum != checksum) {
+                        throw new MigrationException("Migration V" + migration.version + " (" + migration.resource
+                                + ") was changed after it was applied.", null);
+                    }
+                    continue;
+                }
+                apply(connection, migration, script, checksum);
+                count++;
+            }
+            return count;
+        } catch (SQLException e) {
+            throw new MigrationException("Schema migration failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the latest version this build knows how to migrate to
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static Map<Integer, Long> getAppliedVersions(Connection connection) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement("select version, checksum from schema_version");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getLong("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private static void apply(Connection connection, Migration migration, String script, long checksum)
+            throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            RunScript.execute(connection, new StringReader(script));
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into schema_version (version, description, checksum) values (?, ?, ?)")) {
+                statement.setInt(1, migration.version);
+                statement.setString(2, migration.description);
+                statement.setLong(3, checksum);
+                statement.executeUpdate();
+            }
+            connection.commit();
+            System.out.println("Applied schema migration V" + migration.version + ": " + migration.description);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new MigrationException("Migration V" + migration.version + " (" + migration.resource
+                    + ") failed: " + e.getMessage(), e);
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Line endings are normalized first, so a checkout with CRLF endings does not look like an edited script.
+     */
+    private static long checksum(String script) {
+        CRC32 crc = new CRC32();
+        crc.update(script.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
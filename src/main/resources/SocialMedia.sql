@@ -1,3 +1,5 @@
+-- the schema the tests reset to. it must match the migrations in db/migration, which build the same schema for a
+-- running server: a schema change goes in a new migration and here both.
 drop table if exists message;
 drop table if exists account;
 create table account (
@@ -11,4 +13,10 @@ create table message (
     message_text varchar(255),
     time_posted_epoch bigint,
     foreign key (posted_by) references  account(account_id)
-);
\ No newline at end of file
+);
+
+-- serves per-account feeds newest first straight from the index
+create index message_posted_by_time_idx on message (posted_by, time_posted_epoch desc, message_id desc);
+
+-- serves since/until windows over the whole table in time order, so a window costs what it returns
+create index message_time_idx on message (time_posted_epoch, message_id);
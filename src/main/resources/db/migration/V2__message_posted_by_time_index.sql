@@ -0,0 +1,2 @@
+-- serves per-account feeds newest first straight from the index
+create index if not exists message_posted_by_time_idx on message (posted_by, time_posted_epoch desc, message_id desc);
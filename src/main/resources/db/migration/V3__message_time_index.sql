@@ -0,0 +1,2 @@
+-- serves since/until windows over the whole table in time order, so a window costs what it returns
+create index if not exists message_time_idx on message (time_posted_epoch, message_id);
@@ -0,0 +1,62 @@
+package Perf;
+
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AccountService.usernameExists for names that are taken and names that are free, with and without the Bloom filter
+ * in front of the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountServiceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int accounts;
+
+    @Param({"true", "false"})
+    public String bloom;
+
+    private AccountService accountService;
+
+    @Setup
+    public void seed() {
+        ConnectionUtil.resetTestDatabase();
+        AccountService seeder = new AccountService();
+        for (int i = 0; i < accounts; i++) {
+            seeder.createAccount(new Account("user" + i, "password"));
+        }
+        // the service reads the setting when it is built, so build the measured one afterwards
+        System.setProperty("accounts.bloom.enabled", bloom);
+        accountService = new AccountService();
+    }
+
+    @Benchmark
+    public boolean usernameTaken() {
+        return accountService.usernameExists("user" + ThreadLocalRandom.current().nextInt(accounts));
+    }
+
+    @Benchmark
+    public boolean usernameFree() {
+        return accountService.usernameExists("free" + ThreadLocalRandom.current().nextInt(accounts));
+    }
+}
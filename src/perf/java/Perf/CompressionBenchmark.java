@@ -0,0 +1,87 @@
+package Perf;
+
+import Model.Message;
+import Util.JsonCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CPU cost of gzipping message list responses at each level, against the bytes it saves. The sizes are printed once
+ * per trial, next to the timings, so the server.compression.level and server.compression.minSize defaults can be
+ * checked against real message pages. Texts are drawn from a fixed vocabulary with a fixed seed, so runs compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final String[] WORDS = {
+            "the", "a", "coffee", "today", "friends", "weekend", "great", "new", "just", "finished", "reading",
+            "about", "with", "and", "time", "project", "really", "good", "morning", "night", "city", "rain",
+            "music", "watching", "game", "team", "happy", "birthday", "thanks", "everyone", "lunch", "work"
+    };
+
+    /**
+     * Messages per page: a small page, the default page size and the largest page allowed.
+     */
+    @Param({"10", "100", "1000"})
+    private int messages;
+
+    @Param({"1", "6", "9"})
+    private int level;
+
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        List<Message> page = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = 20 + random.nextInt(200);
+            while (text.length() < length) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            page.add(new Message(i + 1, 1 + random.nextInt(1000), text.toString().trim(),
+                    1669947792L + random.nextInt(1_000_000)));
+        }
+        json = JsonCodec.getInstance().writeMessages(page);
+        int compressed = gzip().length;
+        System.out.printf("%n%d messages: %d bytes raw, %d bytes at gzip level %d (%.1f%%)%n", messages,
+                json.length, compressed, level, 100.0 * compressed / json.length);
+    }
+
+    @Benchmark
+    public byte[] gzip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(json);
+        }
+        return out.toByteArray();
+    }
+}
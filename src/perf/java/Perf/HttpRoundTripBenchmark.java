@@ -0,0 +1,98 @@
+package Perf;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full HTTP round trips against the app from startAPI, running in the same JVM on a free port. These include Jetty,
+ * Javalin routing, JSON and the database, so they are the numbers a client would see minus the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpRoundTripBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+    private HttpRequest login;
+    private HttpRequest postMessage;
+    private HttpRequest messagePage;
+
+    @Setup
+    public void start() {
+        ConnectionUtil.resetTestDatabase();
+        int accountId = new AccountService().createAccount(new Account("bench", "password")).getAccount_id();
+        MessageDAOBenchmark.seedMessages(new MessageDAO(), accountId, MESSAGES);
+
+        app = new SocialMediaController().startAPI().start(0);
+        baseUrl = "http://localhost:" + app.port();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        login = HttpRequest.newBuilder(URI.create(baseUrl + "/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"bench\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        postMessage = HttpRequest.newBuilder(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\": " + accountId
+                        + ", \"message_text\": \"benchmark message\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        messagePage = HttpRequest.newBuilder(URI.create(baseUrl + "/messages")).build();
+    }
+
+    @TearDown
+    public void stop() {
+        app.stop();
+    }
+
+    @Benchmark
+    public String getMessageById() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create(baseUrl + "/messages/" + ThreadLocalRandom.current().nextInt(1, MESSAGES + 1))).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    @Benchmark
+    public String getMessagePage() throws IOException, InterruptedException {
+        return client.send(messagePage, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    @Benchmark
+    public String postMessage() throws IOException, InterruptedException {
+        return client.send(postMessage, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    @Benchmark
+    public String login() throws IOException, InterruptedException {
+        return client.send(login, HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
@@ -0,0 +1,76 @@
+package Perf;
+
+import Model.Account;
+import Model.Message;
+import Util.JsonCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and parsing the request and response bodies the routes use, through the shared JsonCodec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    private final JsonCodec jsonCodec = JsonCodec.getInstance();
+    private Message message;
+    private Account account;
+    private List<Message> page;
+    private byte[] messageJson;
+    private byte[] accountJson;
+
+    @Setup
+    public void setUp() {
+        message = new Message(1, 1, "a message of a fairly ordinary length for this site", 1669947792L);
+        account = new Account(1, "testuser1", "password");
+        page = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            page.add(new Message(i, 1, "message " + i, 1669947792L + i));
+        }
+        messageJson = jsonCodec.writeMessage(message);
+        accountJson = jsonCodec.writeAccount(account);
+    }
+
+    @Benchmark
+    public byte[] writeMessage() {
+        return jsonCodec.writeMessage(message);
+    }
+
+    @Benchmark
+    public Message readMessage() throws IOException {
+        return jsonCodec.readMessage(messageJson);
+    }
+
+    @Benchmark
+    public byte[] writeAccount() {
+        return jsonCodec.writeAccount(account);
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return jsonCodec.readAccount(accountJson);
+    }
+
+    @Benchmark
+    public byte[] writeMessagePage() {
+        return jsonCodec.writeMessages(page);
+    }
+}
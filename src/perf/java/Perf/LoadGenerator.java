@@ -0,0 +1,286 @@
+package Perf;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of API calls against an app started from startAPI in this JVM, and reports throughput, errors and
+ * latency percentiles per route. Run it with
+ *
+ *   mvn -Pperf compile exec:java -Dexec.mainClass=Perf.LoadGenerator -Dload.rate=2000 -Dload.seconds=60
+ *
+ * Settings are system properties:
+ *   load.accounts       accounts registered before the run (default 100)
+ *   load.messages       messages posted before the run, spread over the accounts (default 10000)
+ *   load.concurrency    requests in flight at once (default 32)
+ *   load.rate           requests per second to aim for; 0 sends as fast as load.concurrency allows (default 0)
+ *   load.seconds        length of the measured run (default 30)
+ *   load.warmupSeconds  time spent under load before recording starts (default 5)
+ *   load.mix            relative weights, default "register:2,login:8,post:10,list:30,get:30,feed:20"
+ *
+ * With a target rate every request has a scheduled start time, and its latency is counted from then rather than from
+ * when a worker got round to sending it. A stall therefore shows up in the percentiles of every request that should
+ * have been sent during it, not just the one that was stuck, which is the coordinated omission correction. The time
+ * from actual send is reported alongside as service time. Without a rate the two are the same, and the load backs off
+ * whenever the server slows down, so use a rate for latency numbers.
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    enum Operation {
+        REGISTER("POST /register"),
+        LOGIN("POST /login"),
+        POST("POST /messages"),
+        LIST("GET /messages"),
+        GET("GET /messages/{id}"),
+        FEED("GET /accounts/{id}/messages");
+
+        private final String route;
+
+        Operation(String route) {
+            this.route = route;
+        }
+    }
+
+    /**
+     * Counters and histograms for one operation, shared by all workers.
+     */
+    private static class OperationStats {
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+    }
+
+    private final int accounts = Integer.getInteger("load.accounts", 100);
+    private final int messages = Integer.getInteger("load.messages", 10_000);
+    private final int concurrency = Integer.getInteger("load.concurrency", 32);
+    private final int rate = Integer.getInteger("load.rate", 0);
+    private final long seconds = Long.getLong("load.seconds", 30);
+    private final long warmupSeconds = Long.getLong("load.warmupSeconds", 5);
+    private final String mix = System.getProperty("load.mix", "register:2,login:8,post:10,list:30,get:30,feed:20");
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final AtomicInteger nextUsername = new AtomicInteger();
+    private final List<Integer> accountIds = new ArrayList<>();
+    private Operation[] weightedOperations;
+    private String baseUrl;
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+        weightedOperations = parseMix(mix);
+
+        ConnectionUtil.resetTestDatabase();
+        Javalin app = new SocialMediaController().startAPI().start(0);
+        baseUrl = "http://localhost:" + app.port();
+        try {
+            seed();
+            System.out.printf("Seeded %d accounts and %d messages. Running %ds after %ds warmup, %s, mix %s%n",
+                    accountIds.size(), messages, seconds, warmupSeconds,
+                    rate > 0 ? rate + " requests/s over " + concurrency + " connections"
+                            : concurrency + " connections as fast as they go", mix);
+            drive();
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static Operation[] parseMix(String mix) {
+        List<Operation> operations = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            for (int i = Integer.parseInt(parts[1].trim()); i > 0; i--) {
+                operations.add(operation);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("load.mix has no operations: " + mix);
+        }
+        return operations.toArray(new Operation[0]);
+    }
+
+    /**
+     * Registers the accounts one by one, then posts the messages through the batch endpoint.
+     */
+    private void seed() throws IOException, InterruptedException {
+        for (int i = 0; i < accounts; i++) {
+            HttpResponse<String> response = client.send(register(), HttpResponse.BodyHandlers.ofString());
+            accountIds.add(MAPPER.readTree(response.body()).get("account_id").asInt());
+        }
+        for (int start = 0; start < messages; start += 1000) {
+            StringBuilder batch = new StringBuilder("[");
+            for (int i = start; i < Math.min(start + 1000, messages); i++) {
+                batch.append(i == start ? "" : ",").append("{\"posted_by\":")
+                        .append(accountIds.get(i % accountIds.size())).append(",\"message_text\":\"seed message ")
+                        .append(i).append("\",\"time_posted_epoch\":").append(1669947792L + i).append('}');
+            }
+            client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/messages/batch"))
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.append(']').toString()))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private void drive() throws InterruptedException {
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long start = System.nanoTime();
+        long recordFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = recordFrom + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong tickets = new AtomicLong();
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (true) {
+                    long scheduled;
+                    if (intervalNanos > 0) {
+                        scheduled = start + tickets.getAndIncrement() * intervalNanos;
+                        long wait = scheduled - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    } else {
+                        scheduled = System.nanoTime();
+                    }
+                    if (scheduled >= end) {
+                        return;
+                    }
+                    Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+                    long sent = System.nanoTime();
+                    boolean ok = send(operation, random);
+                    long finished = System.nanoTime();
+                    if (scheduled >= recordFrom) {
+                        OperationStats operationStats = stats.get(operation);
+                        operationStats.responseTime.record(finished - scheduled);
+                        operationStats.serviceTime.record(finished - sent);
+                        if (!ok) {
+                            operationStats.errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(seconds + warmupSeconds + 60, TimeUnit.SECONDS);
+        report();
+    }
+
+    /**
+     * @return true if the server answered with a success status
+     */
+    private boolean send(Operation operation, ThreadLocalRandom random) {
+        int accountId = accountIds.get(random.nextInt(accountIds.size()));
+        HttpRequest request;
+        switch (operation) {
+            case REGISTER:
+                request = register();
+                break;
+            case LOGIN:
+                // seeded accounts are user0..userN, all with the same password
+                request = json("/login", "{\"username\":\"user" + random.nextInt(accounts)
+                        + "\",\"password\":\"password\"}");
+                break;
+            case POST:
+                request = json("/messages", "{\"posted_by\":" + accountId + ",\"message_text\":\"load message "
+                        + random.nextInt() + "\",\"time_posted_epoch\":" + System.currentTimeMillis() / 1000 + "}");
+                break;
+            case LIST:
+                request = get("/messages?limit=100&after=" + random.nextInt(Math.max(messages, 1)));
+                break;
+            case GET:
+                request = get("/messages/" + (1 + random.nextInt(Math.max(messages, 1))));
+                break;
+            default:
+                request = get("/accounts/" + accountId + "/messages?limit=50");
+                break;
+        }
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() < 400;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private HttpRequest register() {
+        return json("/register", "{\"username\":\"user" + nextUsername.getAndIncrement()
+                + "\",\"password\":\"password\"}");
+    }
+
+    private HttpRequest json(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+    }
+
+    private void report() {
+        long total = 0;
+        long errors = 0;
+        System.out.printf("%n%-28s %9s %7s %9s %9s %9s %9s %9s   (ms; service time in brackets)%n",
+                "route", "requests", "errors", "p50", "p95", "p99", "p99.9", "max");
+        for (Operation operation : Operation.values()) {
+            OperationStats operationStats = stats.get(operation);
+            long count = operationStats.responseTime.getCount();
+            if (count == 0) {
+                continue;
+            }
+            total += count;
+            errors += operationStats.errors.get();
+            printRow(operation.route, count, operationStats.errors.get(), operationStats.responseTime);
+            printRow("", count, operationStats.errors.get(), operationStats.serviceTime);
+        }
+        System.out.printf("%nthroughput %.1f requests/s, error rate %.3f%% (%d of %d)%n",
+                total / (double) seconds, total == 0 ? 0.0 : 100.0 * errors / total, errors, total);
+    }
+
+    private static void printRow(String label, long count, long errors, LatencyHistogram histogram) {
+        boolean service = label.isEmpty();
+        String format = service ? "%-28s %9s %7s %9s %9s %9s %9s %9s%n" : "%-28s %9d %7d %9s %9s %9s %9s %9s%n";
+        System.out.printf(format, label, service ? "" : count, service ? "" : errors,
+                millis(histogram, 0.5, service), millis(histogram, 0.95, service), millis(histogram, 0.99, service),
+                millis(histogram, 0.999, service), millis(histogram, 1.0, service));
+    }
+
+    private static String millis(LatencyHistogram histogram, double quantile, boolean bracketed) {
+        String value = String.format("%.2f", histogram.getValueAtQuantile(quantile) / 1_000_000.0);
+        return bracketed ? "(" + value + ")" : value;
+    }
+}
@@ -0,0 +1,105 @@
+package Perf;
+
+import DAO.AccountDAO;
+import DAO.ColumnarMessageStore;
+import DAO.LogMessageStore;
+import DAO.MessageDAO;
+import DAO.MessageStore;
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The message stores against the real H2 database at different table sizes. Each run resets the database and seeds it
+ * with rows messages, so the numbers show how the queries scale with the size of the message table. engine is the
+ * storage.engine being measured: h2 queries the table on every call, columnar answers reads from memory and writes
+ * through to the table, and log appends to a memory-mapped log in a temporary directory, flushed once a second.
+ *
+ * createMessage keeps inserting during the run, so its table ends up somewhat larger than rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageDAOBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"h2", "columnar", "log"})
+    public String engine;
+
+    private MessageStore messageStore;
+    private int accountId;
+
+    @Setup
+    public void seed() throws SQLException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        accountId = new AccountService().createAccount(new Account("bench", "password")).getAccount_id();
+        if (engine.equals("log")) {
+            messageStore = new LogMessageStore(Files.createTempDirectory("message-log"), 64 * 1024 * 1024, 1000, 60,
+                    50, new AccountDAO());
+        } else {
+            messageStore = engine.equals("columnar") ? new ColumnarMessageStore(new MessageDAO()) : new MessageDAO();
+        }
+        seedMessages(messageStore, accountId, rows);
+    }
+
+    /**
+     * Inserts count messages in batches, so seeding the larger tables does not dominate the run.
+     */
+    static void seedMessages(MessageStore messageStore, int accountId, int count) {
+        for (int start = 0; start < count; start += 1000) {
+            List<Message> batch = new ArrayList<>();
+            for (int i = start; i < Math.min(count, start + 1000); i++) {
+                batch.add(new Message(accountId, "seeded message " + i, 1669947792L + i));
+            }
+            messageStore.createMessages(batch);
+        }
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return messageStore.createMessage(new Message(accountId, "benchmark message", 1669947792L));
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageStore.getMessageById(ThreadLocalRandom.current().nextInt(1, rows + 1));
+    }
+
+    /**
+     * The first page of the account's feed, newest first, as GET /accounts/{id}/messages asks for it.
+     */
+    @Benchmark
+    public List<Message> getMessagesByUserIdBefore() {
+        return messageStore.getMessagesByUserIdBefore(accountId, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, 100);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageStore.getAllMessages();
+    }
+}
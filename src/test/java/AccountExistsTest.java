@@ -0,0 +1,50 @@
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the posted_by existence check and the foreign key safety net behind it, against the real database.
+ */
+public class AccountExistsTest {
+
+    AccountService accountService;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        new AccountService().createAccount(new Account("existing", "password"));
+        accountService = new AccountService();
+    }
+
+    @Test
+    public void accountExistsTest() {
+        Account created = accountService.createAccount(new Account("created", "password"));
+
+        Assert.assertTrue(accountService.accountExists(1));
+        Assert.assertTrue(accountService.accountExists(created.getAccount_id()));
+        Assert.assertFalse(accountService.accountExists(99));
+    }
+
+    /**
+     * An account created through some other service instance is still found.
+     */
+    @Test
+    public void accountFromAnotherInstanceExistsTest() {
+        Account elsewhere = new AccountService().createAccount(new Account("elsewhere", "password"));
+
+        Assert.assertTrue(accountService.accountExists(elsewhere.getAccount_id()));
+    }
+
+    @Test
+    public void foreignKeyViolationIsReportedTest() {
+        MessageService messageService = new MessageService();
+
+        Assert.assertThrows(MessageService.AccountNotFoundException.class,
+                () -> messageService.createMessage(new Message(99, "nobody", 1669947792)));
+    }
+}
@@ -0,0 +1,99 @@
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+/**
+ * Integration tests for POST /messages/batch.
+ */
+public class BatchIntegrationTest {
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+
+        webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"batcher\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> postBatch(String body) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Valid messages are stored and get ids, invalid ones are reported by position and nothing else is affected.
+     */
+    @Test
+    public void batchReportsEachMessageTest() throws IOException, InterruptedException {
+        String longText = "x".repeat(256);
+        HttpResponse<String> response = postBatch("["
+                + "{\"posted_by\":1, \"message_text\": \"first\", \"time_posted_epoch\": 1669947800},"
+                + "{\"posted_by\":99, \"message_text\": \"nobody\", \"time_posted_epoch\": 1669947801},"
+                + "{\"posted_by\":1, \"message_text\": \"  \", \"time_posted_epoch\": 1669947802},"
+                + "{\"posted_by\":1, \"message_text\": \"" + longText + "\", \"time_posted_epoch\": 1669947803},"
+                + "{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947804}]");
+
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode results = objectMapper.readTree(response.body());
+        Assert.assertEquals(5, results.size());
+        Assert.assertEquals(1, results.get(0).get("message_id").asInt());
+        Assert.assertTrue(results.get(1).has("error"));
+        Assert.assertFalse(results.get(1).has("message_id"));
+        Assert.assertTrue(results.get(2).has("error"));
+        Assert.assertTrue(results.get(3).has("error"));
+        Assert.assertEquals(2, results.get(4).get("message_id").asInt());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(i, results.get(i).get("index").asInt());
+        }
+
+        HttpResponse<String> stored = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        List<Message> messages = objectMapper.readValue(stored.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(
+                new Message(2, 1, "second", 1669947804),
+                new Message(1, 1, "first", 1669947800)), messages);
+    }
+
+    @Test
+    public void batchMustBeAnArrayTest() throws IOException, InterruptedException {
+        Assert.assertEquals(400, postBatch("{\"posted_by\":1, \"message_text\": \"single\"}").statusCode());
+        Assert.assertEquals(400, postBatch("not json").statusCode());
+    }
+}
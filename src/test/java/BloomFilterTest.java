@@ -0,0 +1,38 @@
+import Util.BloomFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    /**
+     * Every added string must be reported as possibly present, or the filter would turn away free usernames.
+     */
+    @Test
+    public void noFalseNegativesTest() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("user" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(filter.mightContain("user" + i));
+        }
+    }
+
+    /**
+     * At its expected size the filter should stay close to the false positive rate it was built for.
+     */
+    @Test
+    public void falsePositiveRateTest() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("user" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("someone-else" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+}
@@ -0,0 +1,206 @@
+import DAO.AccountDAO;
+import DAO.ColumnarMessageStore;
+import DAO.MessageCursor;
+import DAO.MessageDAO;
+import DAO.MessageStore;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the in-memory columnar message store, checked against the H2 tables it writes through to.
+ */
+public class ColumnarMessageStoreTest {
+
+    MessageDAO messageDAO;
+    int[] accountIds;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        AccountDAO accountDAO = new AccountDAO();
+        accountIds = new int[3];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = accountDAO.createAccount(new Account("columnar" + i, "password")).getAccount_id();
+        }
+        messageDAO = new MessageDAO();
+    }
+
+    /**
+     * After a mix of creates, time and text updates and deletes, every kind of page should match what H2 answers for
+     * the same query, in the same order.
+     */
+    @Test
+    public void pagesMatchDatabaseTest() throws SQLException {
+        ColumnarMessageStore store = new ColumnarMessageStore(messageDAO);
+        Random random = new Random(42);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int postedBy = accountIds[random.nextInt(accountIds.length)];
+            // few distinct times, so ties on time are broken by id
+            ids.add(store.createMessage(new Message(postedBy, "message " + i, 1000 + random.nextInt(20)))
+                    .getMessage_id());
+        }
+        for (int i = 0; i < 60; i++) {
+            int id = ids.get(random.nextInt(ids.size()));
+            switch (i % 3) {
+                case 0:
+                    store.updateMessage(new Message(id, 0, "moved " + i, 1000 + random.nextInt(20)));
+                    break;
+                case 1:
+                    store.updateMessageText(id, "edited " + i);
+                    break;
+                default:
+                    store.deleteMessage(id);
+                    break;
+            }
+        }
+
+        Assert.assertEquals(messageDAO.getAllMessages(), store.getAllMessages());
+        Assert.assertEquals(messageDAO.getMessagesAfter(150, 40), store.getMessagesAfter(150, 40));
+        Assert.assertEquals(messageDAO.getMessagesBetween(1005, 1015, 1008, 120, 50),
+                store.getMessagesBetween(1005, 1015, 1008, 120, 50));
+        Assert.assertEquals(messageDAO.getMessagesBetween(Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, 0, 1000),
+                store.getMessagesBetween(Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, 0, 1000));
+        for (int accountId : accountIds) {
+            Assert.assertEquals(messageDAO.getMessagesByUserIdBefore(accountId, Long.MIN_VALUE, Long.MAX_VALUE,
+                    Integer.MAX_VALUE, 1000), store.getMessagesByUserIdBefore(accountId, Long.MIN_VALUE,
+                    Long.MAX_VALUE, Integer.MAX_VALUE, 1000));
+            Assert.assertEquals(messageDAO.getMessagesByUserIdBefore(accountId, 1003, 1012, 150, 10),
+                    store.getMessagesByUserIdBefore(accountId, 1003, 1012, 150, 10));
+        }
+        for (int id : ids) {
+            Assert.assertEquals(messageDAO.getMessageById(id), store.getMessageById(id));
+        }
+    }
+
+    /**
+     * Enough messages to spread the ordered lists over many blocks, posted out of time order and then thinned out and
+     * moved around, should still page exactly as H2 does.
+     */
+    @Test
+    public void largeShuffledStoreMatchesDatabaseTest() throws SQLException {
+        ColumnarMessageStore store = new ColumnarMessageStore(messageDAO);
+        Random random = new Random(7);
+        List<Integer> ids = new ArrayList<>();
+        for (int batch = 0; batch < 10; batch++) {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                messages.add(new Message(accountIds[i % 2], "message " + batch + "-" + i, random.nextInt(100_000)));
+            }
+            for (Message message : store.createMessages(messages)) {
+                ids.add(message.getMessage_id());
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            int id = ids.get(random.nextInt(ids.size()));
+            if (i % 2 == 0) {
+                store.deleteMessage(id);
+            } else {
+                store.updateMessage(new Message(id, 0, "moved " + i, random.nextInt(100_000)));
+            }
+        }
+
+        Assert.assertEquals(messageDAO.getAllMessages(), store.getAllMessages());
+        Assert.assertEquals(messageDAO.getMessagesBetween(20_000, 70_000, 40_000, 0, 3000),
+                store.getMessagesBetween(20_000, 70_000, 40_000, 0, 3000));
+        for (int accountId : accountIds) {
+            Assert.assertEquals(messageDAO.getMessagesByUserIdBefore(accountId, 10_000, 90_000, 0, 5000),
+                    store.getMessagesByUserIdBefore(accountId, 10_000, 90_000, 0, 5000));
+        }
+    }
+
+    /**
+     * A new store should start with everything already in the table, and its cursors should walk all of it.
+     */
+    @Test
+    public void loadsExistingMessagesTest() throws SQLException {
+        for (int i = 0; i < 1200; i++) {
+            messageDAO.createMessage(new Message(accountIds[i % 2], "existing " + i, 1669947792L + i));
+        }
+
+        ColumnarMessageStore store = new ColumnarMessageStore(messageDAO);
+
+        Assert.assertEquals(1200, store.size());
+        int count = 0;
+        try (MessageCursor cursor = store.openMessagesCursor(0)) {
+            while (cursor.next() != null) {
+                count++;
+            }
+        }
+        Assert.assertEquals(1200, count);
+        List<Message> accountMessages = new ArrayList<>();
+        try (MessageCursor cursor = store.openMessagesByUserIdCursor(accountIds[0])) {
+            Message message;
+            while ((message = cursor.next()) != null) {
+                accountMessages.add(message);
+            }
+        }
+        Assert.assertEquals(store.getMessagesByUserId(accountIds[0]), accountMessages);
+        Assert.assertEquals(600, accountMessages.size());
+    }
+
+    /**
+     * Rewriting texts many times leaves old bytes in the arena until it is compacted, which must not disturb the texts
+     * still in use, multi-byte characters included.
+     */
+    @Test
+    public void textsSurviveArenaCompactionTest() throws SQLException {
+        ColumnarMessageStore store = new ColumnarMessageStore(messageDAO);
+        Message kept = store.createMessage(new Message(accountIds[0], "kept as it is \u00e9\u4e2d", 1669947792L));
+        Message edited = store.createMessage(new Message(accountIds[1], "first", 1669947792L));
+        String longText = "x".repeat(250);
+        for (int i = 0; i < 2000; i++) {
+            store.updateMessageText(edited.getMessage_id(), longText.substring(i % 200) + i);
+        }
+
+        Assert.assertEquals("kept as it is \u00e9\u4e2d", store.getMessageById(kept.getMessage_id()).getMessage_text());
+        Assert.assertEquals(longText.substring(1999 % 200) + 1999,
+                store.getMessageById(edited.getMessage_id()).getMessage_text());
+        Assert.assertEquals(kept, store.getMessageByDetails(accountIds[0], "kept as it is \u00e9\u4e2d", 1669947792L));
+        Assert.assertNull(store.getMessageByDetails(accountIds[0], "kept as it is", 1669947792L));
+    }
+
+    /**
+     * Long.MAX_VALUE is a valid time_posted_epoch, and a message posted then must show up on every read H2 returns it
+     * from, not fall off the end of an unbounded page.
+     */
+    @Test
+    public void messageAtLongMaxValueIsReadBackTest() throws SQLException {
+        ColumnarMessageStore store = new ColumnarMessageStore(messageDAO);
+        store.createMessage(new Message(accountIds[0], "earlier", 1669947792L));
+        Message latest = store.createMessage(new Message(accountIds[0], "at the end of time", Long.MAX_VALUE));
+
+        Assert.assertEquals(latest, store.getMessageByDetails(accountIds[0], "at the end of time", Long.MAX_VALUE));
+        Assert.assertEquals(messageDAO.getAllMessages(), store.getAllMessages());
+        Assert.assertEquals(2, store.getAllMessages().size());
+        Assert.assertEquals(messageDAO.getMessagesAfter(0, 10), store.getMessagesAfter(0, 10));
+        Assert.assertEquals(messageDAO.getMessagesByUserId(accountIds[0]), store.getMessagesByUserId(accountIds[0]));
+        Assert.assertEquals(messageDAO.getMessagesByUserIdBefore(accountIds[0], Long.MIN_VALUE, Long.MAX_VALUE,
+                Integer.MAX_VALUE, 10), store.getMessagesByUserIdBefore(accountIds[0], Long.MIN_VALUE,
+                Long.MAX_VALUE, Integer.MAX_VALUE, 10));
+        Assert.assertEquals(messageDAO.getMessagesBetween(1669947792L, Long.MAX_VALUE, Long.MIN_VALUE, 0, 10),
+                store.getMessagesBetween(1669947792L, Long.MAX_VALUE, Long.MIN_VALUE, 0, 10));
+        List<Message> accountMessages = new ArrayList<>();
+        try (MessageCursor cursor = store.openMessagesByUserIdCursor(accountIds[0])) {
+            Message message;
+            while ((message = cursor.next()) != null) {
+                accountMessages.add(message);
+            }
+        }
+        Assert.assertEquals(store.getMessagesByUserId(accountIds[0]), accountMessages);
+    }
+
+    @Test(expected = MessageStore.AccountNotFoundException.class)
+    public void unknownAccountIsRejectedTest() throws SQLException {
+        new ColumnarMessageStore(messageDAO).createMessage(new Message(999, "nobody", 1669947792L));
+    }
+}
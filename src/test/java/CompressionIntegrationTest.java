@@ -0,0 +1,113 @@
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Integration tests for gzip response compression negotiated from Accept-Encoding.
+ */
+public class CompressionIntegrationTest {
+
+    private static final int MESSAGE_COUNT = 300;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+
+        webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"reader\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.discarding());
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 1; i <= MESSAGE_COUNT; i++) {
+            batch.append(i == 1 ? "" : ",").append("{\"posted_by\":1, \"message_text\": \"message number ").append(i)
+                    .append(" with enough text to look like a real post\", \"time_posted_epoch\": ")
+                    .append(1669947790 + i).append('}');
+        }
+        webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append(']').toString()))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<InputStream> getGzip(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .header("Accept-Encoding", "gzip")
+                .build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private List<Message> readGzip(HttpResponse<InputStream> response) throws IOException {
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        try (InputStream body = new GZIPInputStream(response.body())) {
+            return objectMapper.readValue(body, new TypeReference<List<Message>>(){});
+        }
+    }
+
+    /**
+     * A large list should be gzipped for a client that accepts it, and sent raw to one that does not.
+     */
+    @Test
+    public void largeListIsCompressedTest() throws IOException, InterruptedException {
+        Assert.assertEquals(MESSAGE_COUNT, readGzip(getGzip("/messages?limit=1000")).size());
+
+        HttpResponse<String> raw = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=1000"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertTrue(raw.headers().firstValue("Content-Encoding").isEmpty());
+        Assert.assertEquals(MESSAGE_COUNT,
+                objectMapper.readValue(raw.body(), new TypeReference<List<Message>>(){}).size());
+    }
+
+    /**
+     * A body under the size threshold is not worth compressing and should go out raw.
+     */
+    @Test
+    public void smallBodyIsNotCompressedTest() throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = getGzip("/messages/1");
+
+        Assert.assertTrue(response.headers().firstValue("Content-Encoding").isEmpty());
+        Assert.assertEquals(1, objectMapper.readValue(response.body(), Message.class).getMessage_id());
+    }
+
+    /**
+     * A streamed export decides on compression before its first byte, so the whole body is one gzip stream.
+     */
+    @Test
+    public void streamedListIsCompressedTest() throws IOException, InterruptedException {
+        Assert.assertEquals(MESSAGE_COUNT, readGzip(getGzip("/messages?stream=true")).size());
+        Assert.assertEquals(MESSAGE_COUNT, readGzip(getGzip("/accounts/1/messages?stream=true")).size());
+    }
+}
@@ -0,0 +1,55 @@
+import Util.ConcurrentIntBitmap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the int bitmap behind the in-memory account id index.
+ */
+public class ConcurrentIntBitmapTest {
+
+    @Test
+    public void addedValuesAreFoundAndGrowthKeepsThemTest() {
+        ConcurrentIntBitmap bitmap = new ConcurrentIntBitmap(10);
+        bitmap.add(0);
+        bitmap.add(63);
+        bitmap.add(64);
+        bitmap.add(1_000_000);
+
+        Assert.assertTrue(bitmap.contains(0));
+        Assert.assertTrue(bitmap.contains(63));
+        Assert.assertTrue(bitmap.contains(64));
+        Assert.assertTrue(bitmap.contains(1_000_000));
+        Assert.assertFalse(bitmap.contains(1));
+        Assert.assertFalse(bitmap.contains(999_999));
+        Assert.assertFalse(bitmap.contains(Integer.MAX_VALUE));
+        Assert.assertFalse(bitmap.contains(-1));
+    }
+
+    /**
+     * Adds racing with growth must not lose each other's bits.
+     */
+    @Test
+    public void concurrentAddsAreNotLostTest() throws InterruptedException {
+        ConcurrentIntBitmap bitmap = new ConcurrentIntBitmap(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            threads.add(new Thread(() -> {
+                for (int value = offset; value < 100_000; value += 4) {
+                    bitmap.add(value);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int value = 0; value < 100_000; value++) {
+            Assert.assertTrue(bitmap.contains(value));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import Util.ConnectionPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+
+/**
+ * Tests for the connection pool on its own, against a private in-memory database so they do not touch the tables
+ * used by the integration tests.
+ */
+public class ConnectionPoolTest {
+
+    ConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ConnectionPool("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1", "sa", "sa", 2, 200, 0, false, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * A closed connection should go back to the pool and be handed out again instead of opening a new session.
+     */
+    @Test
+    public void closedConnectionIsReusedTest() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertEquals(1, pool.getStats().getActive());
+        }
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertFalse(connection.isClosed());
+        }
+
+        ConnectionPool.Stats stats = pool.getStats();
+        Assert.assertEquals(1, stats.getCreatedCount());
+        Assert.assertEquals(2, stats.getBorrowCount());
+        Assert.assertEquals(0, stats.getActive());
+        Assert.assertEquals(1, stats.getIdle());
+    }
+
+    /**
+     * Borrowing more connections than the pool size should time out rather than open extra sessions.
+     */
+    @Test
+    public void poolIsBoundedTest() throws SQLException {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            Assert.assertThrows(SQLTransientConnectionException.class, () -> pool.getConnection());
+        }
+
+        Assert.assertEquals(1, pool.getStats().getTimeoutCount());
+        Assert.assertEquals(2, pool.getStats().getIdle());
+    }
+
+    /**
+     * A handle that has been closed must not reach the session, which may already belong to another borrower.
+     */
+    @Test
+    public void closedHandleCannotBeUsedTest() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+
+        Assert.assertTrue(connection.isClosed());
+        Assert.assertThrows(SQLException.class, connection::createStatement);
+    }
+
+    /**
+     * A session that died while idle should be replaced with a fresh one on the next borrow.
+     */
+    @Test
+    public void deadConnectionIsReplacedTest() throws SQLException {
+        Connection physical;
+        try (Connection connection = pool.getConnection()) {
+            physical = connection.unwrap(Connection.class);
+        }
+        physical.close();
+
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            Assert.assertTrue(statement.execute("SELECT 1"));
+        }
+
+        Assert.assertEquals(2, pool.getStats().getCreatedCount());
+        Assert.assertEquals(1, pool.getStats().getReconnectCount());
+    }
+
+    /**
+     * Uncommitted work must be rolled back and auto-commit restored before the next borrower gets the session.
+     */
+    @Test
+    public void transactionStateIsResetTest() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+        }
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertTrue(connection.getAutoCommit());
+        }
+    }
+
+    /**
+     * Preparing the same SQL on a warm connection should reuse the statement, with the old parameters cleared.
+     */
+    @Test
+    public void preparedStatementIsReusedTest() throws SQLException {
+        String sql = "SELECT CAST(? AS INT)";
+        PreparedStatement physical;
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, 42);
+            physical = statement.unwrap(PreparedStatement.class);
+            Assert.assertSame(connection, statement.getConnection());
+        }
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            Assert.assertSame(physical, statement.unwrap(PreparedStatement.class));
+            Assert.assertThrows(SQLException.class, statement::executeQuery);
+            statement.setInt(1, 7);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Assert.assertTrue(resultSet.next());
+                Assert.assertEquals(7, resultSet.getInt(1));
+            }
+        }
+
+        ConnectionPool.Stats stats = pool.getStats();
+        Assert.assertEquals(1, stats.getStatementHitCount());
+        Assert.assertEquals(1, stats.getStatementMissCount());
+        Assert.assertEquals(0.5, stats.getStatementHitRate(), 0.0);
+    }
+
+    /**
+     * The cache is bounded per connection, and a statement whose settings were changed is not handed to anyone else.
+     */
+    @Test
+    public void statementCacheIsBoundedTest() throws SQLException {
+        ConnectionPool small = new ConnectionPool("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1", "sa", "sa", 1, 200, 0,
+                false, 2, 2);
+        try {
+            try (Connection connection = small.getConnection()) {
+                for (int i = 0; i < 3; i++) {
+                    connection.prepareStatement("SELECT " + i).close();
+                }
+                PreparedStatement tuned = connection.prepareStatement("SELECT 2");
+                tuned.setFetchSize(10);
+                tuned.close();
+                // left open on purpose, it goes back to the cache when the connection does
+                connection.prepareStatement("SELECT 1");
+            }
+            try (Connection connection = small.getConnection()) {
+                connection.prepareStatement("SELECT 1").close();
+                connection.prepareStatement("SELECT 2").close();
+            }
+
+            ConnectionPool.Stats stats = small.getStats();
+            Assert.assertEquals(1, stats.getStatementEvictionCount());
+            Assert.assertEquals(3, stats.getStatementHitCount());
+            Assert.assertEquals(4, stats.getStatementMissCount());
+        } finally {
+            small.shutdown();
+        }
+    }
+}
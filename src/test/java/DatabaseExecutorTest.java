@@ -0,0 +1,93 @@
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import io.javalin.Javalin;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests for the executor behind the async execution mode, and for the API running in that mode.
+ */
+public class DatabaseExecutorTest {
+
+    @Test
+    public void taskResultAndFailureReachTheFutureTest() throws Exception {
+        DatabaseExecutor executor = new DatabaseExecutor(2, 2);
+        try {
+            Assert.assertEquals("done", executor.submit(() -> "done").get());
+
+            CompletableFuture<Object> failed = executor.submit(() -> {
+                throw new IllegalStateException("boom");
+            });
+            ExecutionException e = Assert.assertThrows(ExecutionException.class, failed::get);
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Once threads + queueLimit tasks are in flight the next one is turned away, and room frees up as tasks finish.
+     */
+    @Test
+    public void rejectsPastCapacityTest() throws Exception {
+        DatabaseExecutor executor = new DatabaseExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Object> first = executor.submit(() -> {
+                release.await();
+                return null;
+            });
+            CompletableFuture<Object> second = executor.submit(() -> null);
+            Assert.assertEquals(2, executor.getInFlight());
+            Assert.assertThrows(RejectedExecutionException.class, () -> executor.submit(() -> null));
+            Assert.assertEquals(1, executor.getRejectedCount());
+
+            release.countDown();
+            first.get();
+            second.get();
+            Assert.assertEquals("again", executor.submit(() -> "again").get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void apiWorksInAsyncModeTest() throws Exception {
+        System.setProperty("server.async", "true");
+        Javalin app = null;
+        try {
+            ConnectionUtil.resetTestDatabase();
+            app = new SocialMediaController().startAPI().start(8080);
+            HttpClient webClient = HttpClient.newHttpClient();
+
+            HttpResponse<String> register = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"async\", \"password\": \"password\"}"))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, register.statusCode());
+            Assert.assertEquals("{\"account_id\":1,\"username\":\"async\",\"password\":\"password\"}", register.body());
+
+            HttpResponse<String> badLimit = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages?limit=0"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(400, badLimit.statusCode());
+        } finally {
+            System.clearProperty("server.async");
+            if (app != null) {
+                app.stop();
+            }
+        }
+    }
+}
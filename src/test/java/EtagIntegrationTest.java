@@ -0,0 +1,154 @@
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Integration tests for ETags and If-None-Match on the message read endpoints.
+ */
+public class EtagIntegrationTest {
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"poller\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        for (int i = 1; i <= 2; i++) {
+            postMessage("message " + i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text
+                        + "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build());
+    }
+
+    private HttpResponse<String> get(String path, String etag) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        return send(request.build());
+    }
+
+    /**
+     * Polling an unchanged list should get 304 with no body, until a new message changes the tag.
+     */
+    @Test
+    public void listNotModifiedUntilChangedTest() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages", null);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<String> again = get("/messages", etag);
+        Assert.assertEquals(304, again.statusCode());
+        Assert.assertEquals("", again.body());
+
+        postMessage("message 3");
+        HttpResponse<String> changed = get("/messages", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+    }
+
+    /**
+     * The same table state read with different parameters is a different representation, with its own tag.
+     */
+    @Test
+    public void listTagDependsOnQueryTest() throws IOException, InterruptedException {
+        String all = get("/messages", null).headers().firstValue("ETag").orElseThrow();
+        String page = get("/messages?limit=1", null).headers().firstValue("ETag").orElseThrow();
+        String feed = get("/accounts/1/messages", null).headers().firstValue("ETag").orElseThrow();
+
+        Assert.assertNotEquals(all, page);
+        Assert.assertNotEquals(all, feed);
+        Assert.assertEquals(200, get("/messages?limit=1", all).statusCode());
+        Assert.assertEquals(304, get("/accounts/1/messages", feed).statusCode());
+    }
+
+    /**
+     * A message's tag should survive writes to other messages, and change when the message itself is updated.
+     */
+    @Test
+    public void messageTagFollowsItsOwnWritesTest() throws IOException, InterruptedException {
+        String etag = get("/messages/1", null).headers().firstValue("ETag").orElseThrow();
+
+        postMessage("message 3");
+        Assert.assertEquals(304, get("/messages/1", etag).statusCode());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        HttpResponse<String> changed = get("/messages/1", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("edited"));
+    }
+
+    /**
+     * "*" matches any message that exists, but there is nothing to match under an id that was never used.
+     */
+    @Test
+    public void anyTagMatchesOnlyExistingMessageTest() throws IOException, InterruptedException {
+        Assert.assertEquals(304, get("/messages/1", "*").statusCode());
+
+        HttpResponse<String> missing = get("/messages/100", "*");
+        Assert.assertEquals(404, missing.statusCode());
+        Assert.assertEquals("", missing.body());
+        Assert.assertEquals(200, get("/messages/100", null).statusCode());
+    }
+
+    /**
+     * A client that accepts gzip may get a compressed body, so its tag is weak; it must still revalidate.
+     */
+    @Test
+    public void tagIsWeakWhenBodyMayBeCompressedTest() throws IOException, InterruptedException {
+        String identity = get("/messages/1", null).headers().firstValue("ETag").orElseThrow();
+        HttpResponse<String> gzip = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("Accept-Encoding", "gzip")
+                .build());
+        String weak = gzip.headers().firstValue("ETag").orElseThrow();
+
+        Assert.assertFalse(identity.startsWith("W/"));
+        Assert.assertEquals("W/" + identity, weak);
+        Assert.assertEquals(304, send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", weak)
+                .build()).statusCode());
+    }
+}
@@ -0,0 +1,58 @@
+import Util.IntIntMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the primitive int map behind the columnar message store's id and account lookups.
+ */
+public class IntIntMapTest {
+
+    @Test
+    public void putGetAndRemoveTest() {
+        IntIntMap map = new IntIntMap(4);
+        map.put(0, 10);
+        map.put(1, 11);
+        map.put(-5, 12);
+        map.put(1, 13);
+
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals(10, map.get(0));
+        Assert.assertEquals(13, map.get(1));
+        Assert.assertEquals(12, map.get(-5));
+        Assert.assertEquals(-1, map.get(2));
+        Assert.assertEquals(10, map.remove(0));
+        Assert.assertEquals(-1, map.get(0));
+        Assert.assertEquals(-1, map.remove(2));
+        Assert.assertEquals(2, map.size());
+    }
+
+    /**
+     * Random puts and removes, checked against a HashMap, so growth and the backward shift on remove are exercised
+     * with long probe runs.
+     */
+    @Test
+    public void matchesHashMapTest() {
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals((int) expected.getOrDefault(key, -1), map.remove(key));
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 5000; key++) {
+            Assert.assertEquals((int) expected.getOrDefault(key, -1), map.get(key));
+        }
+    }
+}
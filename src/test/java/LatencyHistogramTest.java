@@ -0,0 +1,44 @@
+import Util.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the log-linear latency histogram behind /metrics.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Quantiles should come back within the histogram's few percent of relative error.
+     */
+    @Test
+    public void quantilesAreWithinBucketPrecisionTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        Assert.assertEquals(100_000, histogram.getCount());
+        assertClose(50_000_000, histogram.getValueAtQuantile(0.5));
+        assertClose(99_000_000, histogram.getValueAtQuantile(0.99));
+        assertClose(100_000_000, histogram.getValueAtQuantile(1.0));
+        Assert.assertEquals(1000, histogram.getValueAtQuantile(0.0), 1000 * 0.04);
+    }
+
+    @Test
+    public void smallAndHugeValuesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtQuantile(0.5));
+
+        histogram.record(-5);
+        histogram.record(7);
+        histogram.record(Long.MAX_VALUE);
+
+        Assert.assertEquals(0, histogram.getValueAtQuantile(0.2));
+        Assert.assertEquals(7, histogram.getValueAtQuantile(0.5));
+        Assert.assertTrue(histogram.getValueAtQuantile(1.0) > 1L << 42);
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertEquals(expected, actual, expected * 0.04);
+    }
+}
@@ -0,0 +1,224 @@
+import DAO.AccountDAO;
+import DAO.LogMessageStore;
+import DAO.MessageStore;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the append-only message log, each in its own directory. Accounts still come from the test database.
+ */
+public class LogMessageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    AccountDAO accountDAO;
+    int accountId;
+    Path directory;
+    LogMessageStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        accountDAO = new AccountDAO();
+        accountId = accountDAO.createAccount(new Account("logged", "password")).getAccount_id();
+        directory = folder.getRoot().toPath();
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    /**
+     * Small segments, no background flushing or compaction, so the tests decide when things happen.
+     */
+    private LogMessageStore open() throws IOException {
+        return new LogMessageStore(directory, 64 * 1024, 0, 0, 50, accountDAO);
+    }
+
+    private LogMessageStore reopen() throws IOException {
+        store.close();
+        store = open();
+        return store;
+    }
+
+    /**
+     * Every kind of write should be replayed from the log after a restart, and new ids should carry on after the old.
+     */
+    @Test
+    public void writesSurviveRestartTest() throws IOException {
+        Message first = store.createMessage(new Message(accountId, "first", 1669947792L));
+        List<Message> batch = store.createMessages(Arrays.asList(new Message(accountId, "second", 1669947793L),
+                new Message(accountId, "third", 1669947794L), new Message(accountId, "fourth", 1669947795L)));
+        store.updateMessage(new Message(batch.get(0).getMessage_id(), 0, "second, moved", 1669947700L));
+        store.updateMessageText(batch.get(1).getMessage_id(), "third, edited");
+        Message deleted = store.deleteMessage(batch.get(2).getMessage_id());
+        List<Message> before = store.getAllMessages();
+
+        reopen();
+
+        Assert.assertEquals(before, store.getAllMessages());
+        Assert.assertEquals(3, before.size());
+        Assert.assertNull(store.getMessageById(deleted.getMessage_id()));
+        Assert.assertEquals("second, moved", store.getMessagesByUserIdBefore(accountId, Long.MIN_VALUE,
+                Long.MAX_VALUE, Integer.MAX_VALUE, 10).get(2).getMessage_text());
+        Assert.assertEquals(first, store.getMessageByDetails(accountId, "first", 1669947792L));
+        // the deleted message had the highest id, which must not be handed out again
+        Assert.assertEquals(deleted.getMessage_id() + 1,
+                store.createMessage(new Message(accountId, "fifth", 1669947796L)).getMessage_id());
+    }
+
+    /**
+     * A record torn by a crash should be dropped on recovery, keeping everything before it, and the log should take
+     * new records in its place.
+     */
+    @Test
+    public void tornRecordIsDroppedTest() throws IOException {
+        store.createMessage(new Message(accountId, "kept", 1669947792L));
+        Message torn = store.createMessage(new Message(accountId, "torn by a crash", 1669947793L));
+        store.close();
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("segment-00000001.log").toFile(), "rw")) {
+            // the second record starts after the header and the first record, 16 + 8 + 22 + 4 bytes in
+            file.seek(16 + 8 + 22 + 4 + 8 + 22 + 3);
+            file.write('X');
+        }
+
+        store = open();
+
+        Assert.assertEquals(1, store.size());
+        Assert.assertNull(store.getMessageById(torn.getMessage_id()));
+        Message replacement = store.createMessage(new Message(accountId, "after recovery", 1669947794L));
+        reopen();
+        Assert.assertEquals(Arrays.asList("kept", "after recovery"), texts(store.getAllMessages()));
+        Assert.assertEquals(replacement, store.getMessageById(replacement.getMessage_id()));
+    }
+
+    /**
+     * A newest segment left with no header by a crash right after it was created holds no records, and should be
+     * cleared away on recovery rather than stop the log from opening.
+     */
+    @Test
+    public void blankNewestSegmentIsRemovedTest() throws IOException {
+        Message kept = store.createMessage(new Message(accountId, "kept", 1669947792L));
+        store.close();
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("segment-00000002.log").toFile(), "rw")) {
+            file.setLength(64 * 1024);
+        }
+
+        store = open();
+
+        Assert.assertEquals(1, store.getSegmentCount());
+        Assert.assertEquals(kept, store.getMessageById(kept.getMessage_id()));
+        Message added = store.createMessage(new Message(accountId, "added", 1669947793L));
+        reopen();
+        Assert.assertEquals(Arrays.asList(kept, added), store.getAllMessages());
+    }
+
+    /**
+     * Compacting segments full of superseded records should shrink the log without changing what it holds, before or
+     * after a restart.
+     */
+    @Test
+    public void compactionKeepsLiveMessagesTest() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(store.createMessage(new Message(accountId, "message " + i, 1669947792L + i)));
+        }
+        String padding = "x".repeat(200);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20; i++) {
+                store.updateMessageText(messages.get(i).getMessage_id(), padding + round);
+            }
+        }
+        store.deleteMessage(messages.get(0).getMessage_id());
+        List<Message> before = store.getAllMessages();
+        int segmentsBefore = store.getSegmentCount();
+
+        Assert.assertTrue(store.compact() > 0);
+
+        Assert.assertTrue(store.getSegmentCount() < segmentsBefore);
+        Assert.assertEquals(before, store.getAllMessages());
+        reopen();
+        Assert.assertEquals(before, store.getAllMessages());
+        Assert.assertEquals(19, store.size());
+    }
+
+    /**
+     * A tombstone should be dropped by compaction once no older segment can hold a record it cancels, and carried
+     * over only while one can, so compacting does not keep rewriting tombstones that no longer do anything.
+     */
+    @Test
+    public void compactionDropsTombstonesNoLongerNeededTest() throws IOException {
+        List<Message> live = new ArrayList<>();
+        while (store.getSegmentCount() == 1) {
+            live.add(store.createMessage(new Message(accountId, "live " + live.size(), 1669947792L)));
+        }
+        // a tombstone in segment 2 for a message in segment 1, which must survive compaction
+        Message deletedLive = store.deleteMessage(live.get(0).getMessage_id());
+        while (store.getSegmentCount() == 2) {
+            Message shortLived = store.createMessage(new Message(accountId, "", 1669947793L));
+            store.deleteMessage(shortLived.getMessage_id());
+        }
+
+        Path active = directory.resolve("segment-00000003.log");
+        int activeBytes = usedBytes(active);
+
+        Assert.assertEquals(1, store.compact());
+
+        Assert.assertEquals(2, store.getSegmentCount());
+        // the message that started segment 2 is copied over along with the one tombstone still needed
+        Message rolledOver = live.get(live.size() - 1);
+        Assert.assertEquals(activeBytes + 8 + 22 + rolledOver.getMessage_text().length() + 8 + 22, usedBytes(active));
+        Assert.assertEquals(0, store.compact());
+        reopen();
+        Assert.assertNull(store.getMessageById(deletedLive.getMessage_id()));
+        Assert.assertEquals(live.size() - 1, store.size());
+    }
+
+    @Test(expected = MessageStore.AccountNotFoundException.class)
+    public void unknownAccountIsRejectedTest() {
+        store.createMessage(new Message(accountId + 1, "nobody", 1669947792L));
+    }
+
+    /**
+     * @return how many bytes of records follow the segment header
+     */
+    private static int usedBytes(Path segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            int offset = 16;
+            while (offset + 8 <= file.length()) {
+                file.seek(offset);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                offset += 8 + length;
+            }
+            return offset - 16;
+        }
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> texts = new ArrayList<>();
+        for (Message message : messages) {
+            texts.add(message.getMessage_text());
+        }
+        return texts;
+    }
+}
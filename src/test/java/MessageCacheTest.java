@@ -0,0 +1,123 @@
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the read-through message cache in MessageService, run against the real database.
+ */
+public class MessageCacheTest {
+
+    MessageService messageService;
+    Message message;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        Account account = new AccountService().createAccount(new Account("cached", "password"));
+        messageService = new MessageService();
+        message = messageService.createMessage(new Message(account.getAccount_id(), "hot message", 1669947792));
+    }
+
+    /**
+     * A freshly created message is written through, so reading it back should not touch the database.
+     */
+    @Test
+    public void createdMessageIsServedFromCacheTest() {
+        Assert.assertEquals(message, messageService.getMessageById(message.getMessage_id()));
+        Assert.assertEquals(message, messageService.getMessageById(message.getMessage_id()));
+
+        Assert.assertEquals(2, messageService.getCacheStats().hitCount());
+        Assert.assertEquals(0, messageService.getCacheStats().missCount());
+    }
+
+    /**
+     * Callers may modify what they get back, which must not leak into the cached copy.
+     */
+    @Test
+    public void cachedMessageIsNotSharedTest() {
+        messageService.getMessageById(message.getMessage_id()).setMessage_text("changed by a caller");
+
+        Assert.assertEquals("hot message", messageService.getMessageById(message.getMessage_id()).getMessage_text());
+    }
+
+    /**
+     * An update must invalidate the cached message so the next read sees the new text.
+     */
+    @Test
+    public void updateInvalidatesCacheTest() {
+        Message update = new Message(message.getMessage_id(), message.getPosted_by(), "updated text",
+                message.getTime_posted_epoch());
+        Assert.assertTrue(messageService.updateMessage(update));
+
+        Assert.assertEquals("updated text", messageService.getMessageById(message.getMessage_id()).getMessage_text());
+    }
+
+    /**
+     * Changing the text returns the full row from the same statement and writes it through to the cache.
+     */
+    @Test
+    public void updateMessageTextWritesThroughTest() {
+        Message updated = messageService.updateMessageText(message.getMessage_id(), "new text");
+        Message expected = new Message(message.getMessage_id(), message.getPosted_by(), "new text",
+                message.getTime_posted_epoch());
+
+        Assert.assertEquals(expected, updated);
+        Assert.assertEquals(expected, messageService.getMessageById(message.getMessage_id()));
+        Assert.assertEquals(0, messageService.getCacheStats().missCount());
+        Assert.assertNull(messageService.updateMessageText(999, "nobody"));
+    }
+
+    /**
+     * Missing ids are cached as missing, including ids whose message was just deleted.
+     */
+    @Test
+    public void missingMessageIsNegativelyCachedTest() {
+        Assert.assertEquals(message, messageService.deleteMessage(message.getMessage_id()));
+
+        Assert.assertThrows(MessageService.MessageNotFoundException.class,
+                () -> messageService.getMessageById(message.getMessage_id()));
+        Assert.assertThrows(MessageService.MessageNotFoundException.class, () -> messageService.getMessageById(999));
+        Assert.assertThrows(MessageService.MessageNotFoundException.class, () -> messageService.getMessageById(999));
+
+        Assert.assertEquals(1, messageService.getCacheStats().missCount());
+        Assert.assertEquals(2, messageService.getCacheStats().hitCount());
+    }
+
+    /**
+     * Concurrent edits of one message must leave the cache holding whichever text the database kept last.
+     */
+    @Test
+    public void concurrentTextUpdatesLeaveCacheCurrentTest() throws Exception {
+        int messageId = message.getMessage_id();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    messageService.updateMessageText(messageId, "edit " + thread + "-" + i);
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Message cached = messageService.getMessageById(messageId);
+        messageService.removeMessageFromCache(messageId);
+        Assert.assertEquals(messageService.getMessageById(messageId), cached);
+    }
+}
@@ -0,0 +1,78 @@
+import Model.Message;
+import Service.MessageFeed;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the live message event fan-out.
+ */
+public class MessageFeedTest {
+
+    /**
+     * A filtered subscriber should only see events for its account's messages, in the order they were published.
+     */
+    @Test
+    public void subscriberSeesOnlyItsAccountTest() throws Exception {
+        MessageFeed feed = new MessageFeed(10);
+        MessageFeed.Subscription all = feed.subscribe(null);
+        MessageFeed.Subscription mine = feed.subscribe(1);
+
+        feed.publish(MessageFeed.EventType.CREATED, new Message(1, 2, "theirs", 1669947792L), 1);
+        feed.publish(MessageFeed.EventType.CREATED, new Message(2, 1, "mine", 1669947792L), 2);
+        feed.publish(MessageFeed.EventType.DELETED, new Message(2, 1, "mine", 1669947792L), 3);
+
+        Assert.assertEquals(1, all.next(1, TimeUnit.SECONDS).getSequence());
+        MessageFeed.Event created = mine.next(1, TimeUnit.SECONDS);
+        Assert.assertEquals(MessageFeed.EventType.CREATED, created.getType());
+        Assert.assertEquals(2, created.getSequence());
+        Assert.assertEquals(MessageFeed.EventType.DELETED, mine.next(1, TimeUnit.SECONDS).getType());
+        Assert.assertNull(mine.next(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A subscriber that falls more than its buffer behind should be cut off without affecting the others.
+     */
+    @Test
+    public void slowSubscriberIsDisconnectedTest() throws Exception {
+        MessageFeed feed = new MessageFeed(2);
+        MessageFeed.Subscription slow = feed.subscribe(null);
+        MessageFeed.Subscription keepingUp = feed.subscribe(null);
+
+        for (int i = 1; i <= 3; i++) {
+            feed.publish(MessageFeed.EventType.CREATED, new Message(i, 1, "post " + i, 1669947792L), i);
+            Assert.assertEquals(i, keepingUp.next(1, TimeUnit.SECONDS).getSequence());
+        }
+
+        Assert.assertTrue(slow.isClosed());
+        Assert.assertTrue(slow.isOverflowed());
+        Assert.assertNull(slow.next(1, TimeUnit.SECONDS));
+        Assert.assertFalse(keepingUp.isClosed());
+        Assert.assertEquals(1, feed.getSubscriberCount());
+    }
+
+    /**
+     * Closing a subscription should wake a reader waiting on it straight away.
+     */
+    @Test
+    public void closeWakesWaitingReaderTest() throws Exception {
+        MessageFeed feed = new MessageFeed(10);
+        MessageFeed.Subscription subscription = feed.subscribe(null);
+        CompletableFuture<MessageFeed.Event> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return subscription.next(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        feed.closeAll();
+
+        Assert.assertNull(waiting.get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(subscription.isOverflowed());
+        Assert.assertEquals(0, feed.getSubscriberCount());
+    }
+}
@@ -0,0 +1,144 @@
+import Model.Message;
+import Service.MessageWriteBehind;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the group commit queue, with the database replaced by in-memory writers.
+ */
+public class MessageWriteBehindTest {
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    private List<Message> storeAll(List<Message> messages) {
+        synchronized (batchSizes) {
+            batchSizes.add(messages.size());
+        }
+        for (Message message : messages) {
+            message.setMessage_id(nextId.getAndIncrement());
+        }
+        return messages;
+    }
+
+    private Message storeOne(Message message) {
+        if (message.getPosted_by() == 99) {
+            throw new IllegalArgumentException("unknown account");
+        }
+        message.setMessage_id(nextId.getAndIncrement());
+        return message;
+    }
+
+    /**
+     * Posts that arrive within the linger time are written together, and every caller gets its own id back.
+     */
+    @Test
+    public void postsAreGroupedIntoBatchesTest() throws Exception {
+        MessageWriteBehind writeBehind = new MessageWriteBehind(this::storeAll, this::storeOne, 50, 200, 1000);
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(writeBehind.submit(new Message(1, "post " + i, 1669947792L)));
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        for (CompletableFuture<Message> future : futures) {
+            ids.add(future.get().getMessage_id());
+        }
+        writeBehind.shutdown();
+
+        Assert.assertEquals(20, ids.stream().distinct().count());
+        Assert.assertTrue("expected fewer transactions than posts, got " + batchSizes, batchSizes.size() < 20);
+        Assert.assertEquals(20, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * When a batch fails as a whole, each message is settled on its own so one bad post does not sink the others.
+     */
+    @Test
+    public void failedBatchFallsBackToSingleWritesTest() throws Exception {
+        MessageWriteBehind writeBehind = new MessageWriteBehind(messages -> {
+            throw new IllegalStateException("rolled back");
+        }, this::storeOne, 10, 100, 100);
+        CompletableFuture<Message> good = writeBehind.submit(new Message(1, "good", 1669947792L));
+        CompletableFuture<Message> bad = writeBehind.submit(new Message(99, "bad", 1669947792L));
+
+        Assert.assertEquals("good", good.get().getMessage_text());
+        ExecutionException e = Assert.assertThrows(ExecutionException.class, bad::get);
+        Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        writeBehind.shutdown();
+    }
+
+    @Test
+    public void fullQueueRejectsTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MessageWriteBehind writeBehind = new MessageWriteBehind(messages -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return storeAll(messages);
+        }, this::storeOne, 1, 0, 2);
+
+        CompletableFuture<Message> writing = writeBehind.submit(new Message(1, "being written", 1669947792L));
+        while (writeBehind.getQueued() > 0) {
+            Thread.onSpinWait();
+        }
+        writeBehind.submit(new Message(1, "queued", 1669947792L));
+        writeBehind.submit(new Message(1, "queued", 1669947792L));
+        Assert.assertThrows(RejectedExecutionException.class,
+                () -> writeBehind.submit(new Message(1, "one too many", 1669947792L)));
+
+        release.countDown();
+        writing.get();
+        writeBehind.shutdown();
+        Assert.assertEquals(0, writeBehind.getQueued());
+        Assert.assertThrows(RejectedExecutionException.class,
+                () -> writeBehind.submit(new Message(1, "after shutdown", 1669947792L)));
+    }
+
+    /**
+     * Posts racing a shutdown must either be rejected or be written; none may be left in the queue with a future
+     * that never completes.
+     */
+    @Test
+    public void postsRacingShutdownAreWrittenOrRejectedTest() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            MessageWriteBehind writeBehind = new MessageWriteBehind(this::storeAll, this::storeOne, 8, 0, 10_000);
+            List<CompletableFuture<Message>> accepted = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> posters = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread poster = new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        try {
+                            accepted.add(writeBehind.submit(new Message(1, "racing", 1669947792L)));
+                        } catch (RejectedExecutionException e) {
+                            return;
+                        }
+                    }
+                });
+                posters.add(poster);
+                poster.start();
+            }
+            writeBehind.shutdown();
+            for (Thread poster : posters) {
+                poster.join();
+            }
+
+            for (CompletableFuture<Message> future : accepted) {
+                Assert.assertTrue(future.get(5, TimeUnit.SECONDS).getMessage_id() > 0);
+            }
+            Assert.assertEquals(0, writeBehind.getQueued());
+        }
+    }
+}
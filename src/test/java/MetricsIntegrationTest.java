@@ -0,0 +1,61 @@
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Integration tests for the Prometheus endpoint.
+ */
+public class MetricsIntegrationTest {
+
+    Javalin app;
+    HttpClient webClient;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI().start(8080);
+        webClient = HttpClient.newHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void requestsShowUpInMetricsTest() throws IOException, InterruptedException {
+        get("/messages/1");
+        get("/messages?limit=0");
+        get("/no/such/route");
+
+        HttpResponse<String> response = get("/metrics");
+        String body = response.body();
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        Assert.assertTrue(body.contains("# TYPE http_request_duration_seconds summary"));
+        Assert.assertTrue(body.contains(
+                "http_request_duration_seconds{method=\"GET\",route=\"/messages/{id}\",quantile=\"0.99\"}"));
+        Assert.assertTrue(body.contains("http_request_duration_seconds_count{method=\"GET\",route=\"unmatched\"}"));
+        Assert.assertTrue(body.contains("http_responses_total{code=\"400\"}"));
+        Assert.assertTrue(body.contains("http_responses_total{code=\"404\"}"));
+        Assert.assertTrue(body.contains("http_requests_in_flight 1"));
+        Assert.assertTrue(body.contains("dao_call_duration_seconds_count{method=\"MessageDAO.getMessageById\"}"));
+        Assert.assertTrue(body.contains("db_pool_connection_wait_seconds_count "));
+    }
+}
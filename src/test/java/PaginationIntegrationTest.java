@@ -0,0 +1,243 @@
+import Controller.SocialMediaController;
+import DAO.ColumnarMessageStore;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Integration tests for the cursor-paginated and streamed message list endpoints.
+ */
+public class PaginationIntegrationTest {
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"pager\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        for (int i = 1; i <= 5; i++) {
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"message " + i
+                            + "\", \"time_posted_epoch\": " + (1669947790 + i) + "}"))
+                    .header("Content-Type", "application/json")
+                    .build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build());
+    }
+
+    /**
+     * Following the next cursor should walk every message exactly once, in id order, and the last page should not
+     * carry a cursor.
+     */
+    @Test
+    public void followCursorThroughAllPagesTest() throws IOException, InterruptedException {
+        List<Integer> seen = new ArrayList<>();
+        String path = "/messages?limit=2";
+        int pages = 0;
+        while (path != null) {
+            HttpResponse<String> response = get(path);
+            Assert.assertEquals(200, response.statusCode());
+            List<Message> page = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+            Assert.assertTrue(page.size() <= 2);
+            page.forEach(message -> seen.add(message.getMessage_id()));
+            pages++;
+            path = response.headers().firstValue(SocialMediaController.NEXT_CURSOR_HEADER)
+                    .map(cursor -> "/messages?limit=2&after=" + cursor)
+                    .orElse(null);
+        }
+
+        Assert.assertEquals(List.of(1, 2, 3, 4, 5), seen);
+        Assert.assertEquals(3, pages);
+    }
+
+    /**
+     * Without paging parameters the endpoint should still return every message when they fit in the default page.
+     */
+    @Test
+    public void defaultPageTest() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages");
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+
+        Assert.assertEquals(5, messages.size());
+        Assert.assertTrue(response.headers().firstValue(SocialMediaController.NEXT_CURSOR_HEADER).isEmpty());
+    }
+
+    /**
+     * A malformed or non-positive limit is a client error.
+     */
+    @Test
+    public void invalidLimitTest() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?limit=0").statusCode());
+        Assert.assertEquals(400, get("/messages?limit=abc").statusCode());
+    }
+
+    /**
+     * Streaming mode should return every message as one JSON array regardless of the page size limits.
+     */
+    @Test
+    public void streamAllMessagesTest() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?stream=true&limit=1");
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(5, messages.size());
+        Assert.assertEquals(new Message(5, 1, "message 5", 1669947795), messages.get(4));
+    }
+
+    /**
+     * Streaming an account's messages should return only that account's messages.
+     */
+    @Test
+    public void streamAccountMessagesTest() throws IOException, InterruptedException {
+        HttpResponse<String> mine = get("/accounts/1/messages?stream=true");
+        HttpResponse<String> nobody = get("/accounts/2/messages?stream=true");
+
+        Assert.assertEquals(5, objectMapper.readValue(mine.body(), new TypeReference<List<Message>>(){}).size());
+        Assert.assertEquals("[]", nobody.body());
+    }
+
+    /**
+     * An account's feed should come back newest first, and following its cursor should reach every message once.
+     */
+    @Test
+    public void accountFeedNewestFirstTest() throws IOException, InterruptedException {
+        List<Integer> seen = new ArrayList<>();
+        String path = "/accounts/1/messages?limit=2";
+        while (path != null) {
+            HttpResponse<String> response = get(path);
+            Assert.assertEquals(200, response.statusCode());
+            objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){})
+                    .forEach(message -> seen.add(message.getMessage_id()));
+            path = response.headers().firstValue(SocialMediaController.NEXT_CURSOR_HEADER)
+                    .map(cursor -> "/accounts/1/messages?limit=2&before=" + cursor)
+                    .orElse(null);
+        }
+
+        Assert.assertEquals(List.of(5, 4, 3, 2, 1), seen);
+    }
+
+    /**
+     * A bare time for before should return only messages posted strictly before it.
+     */
+    @Test
+    public void accountFeedBeforeTimeTest() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/1/messages?before=1669947793");
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(2, messages.get(0).getMessage_id());
+        Assert.assertEquals(1, messages.get(1).getMessage_id());
+        Assert.assertEquals(400, get("/accounts/1/messages?before=yesterday").statusCode());
+    }
+
+    /**
+     * since and until should select a half-open time window, oldest first, and its cursor should walk the window once.
+     */
+    @Test
+    public void messagesTimeWindowTest() throws IOException, InterruptedException {
+        List<Integer> seen = new ArrayList<>();
+        String path = "/messages?since=1669947792&until=1669947795&limit=2";
+        while (path != null) {
+            HttpResponse<String> response = get(path);
+            Assert.assertEquals(200, response.statusCode());
+            objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){})
+                    .forEach(message -> seen.add(message.getMessage_id()));
+            path = response.headers().firstValue(SocialMediaController.NEXT_CURSOR_HEADER)
+                    .map(cursor -> "/messages?since=1669947792&until=1669947795&limit=2&after=" + cursor)
+                    .orElse(null);
+        }
+
+        Assert.assertEquals(List.of(2, 3, 4), seen);
+        Assert.assertEquals(400, get("/messages?since=1669947792&after=3").statusCode());
+        Assert.assertEquals(400, get("/messages?since=yesterday").statusCode());
+        Assert.assertEquals(400, get("/messages?since=1669947792&stream=true").statusCode());
+    }
+
+    /**
+     * A window with only since set has no upper bound, so a message posted at Long.MAX_VALUE belongs in it, and the
+     * H2 and columnar engines should return the same page for it.
+     */
+    @Test
+    public void sinceOnlyWindowIncludesLatestTimeOnEveryEngineTest() throws Exception {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"last\", "
+                        + "\"time_posted_epoch\": " + Long.MAX_VALUE + "}"))
+                .header("Content-Type", "application/json")
+                .build());
+        HttpResponse<String> h2 = get("/messages?since=1669947794");
+        app.stop();
+
+        app = new SocialMediaController(new AccountService(),
+                new MessageService(new ColumnarMessageStore(new MessageDAO()))).startAPI();
+        app.start(8080);
+        HttpResponse<String> columnar = get("/messages?since=1669947794");
+
+        List<Message> expected = List.of(new Message(4, 1, "message 4", 1669947794), new Message(5, 1, "message 5",
+                1669947795), new Message(6, 1, "last", Long.MAX_VALUE));
+        Assert.assertEquals(expected, objectMapper.readValue(h2.body(), new TypeReference<List<Message>>(){}));
+        Assert.assertEquals(expected, objectMapper.readValue(columnar.body(), new TypeReference<List<Message>>(){}));
+    }
+
+    /**
+     * An account's feed should honour since and until alongside its own cursor.
+     */
+    @Test
+    public void accountFeedTimeWindowTest() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/1/messages?since=1669947792&until=1669947795");
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        List<Integer> ids = new ArrayList<>();
+        messages.forEach(message -> ids.add(message.getMessage_id()));
+
+        Assert.assertEquals(List.of(4, 3, 2), ids);
+
+        response = get("/accounts/1/messages?since=1669947792&before=1669947794:4");
+        ids.clear();
+        objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){})
+                .forEach(message -> ids.add(message.getMessage_id()));
+        Assert.assertEquals(List.of(3, 2), ids);
+    }
+}
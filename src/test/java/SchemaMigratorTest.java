@@ -0,0 +1,86 @@
+import Util.SchemaMigrator;
+import org.h2.tools.RunScript;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Tests for the versioned schema migrations, against a private in-memory database so they do not touch the tables
+ * used by the integration tests.
+ */
+public class SchemaMigratorTest {
+
+    Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:migratortest", "sa", "sa");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * An empty database should get every migration once, and a restart should apply nothing and keep the rows.
+     */
+    @Test
+    public void migrateIsRepeatableAndKeepsDataTest() throws SQLException {
+        Assert.assertEquals(SchemaMigrator.getLatestVersion(), SchemaMigrator.migrate(connection));
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("insert into account (username, password) values ('kept', 'password')");
+            statement.executeUpdate("insert into message (posted_by, message_text, time_posted_epoch) "
+                    + "values (1, 'still here', 1669947792)");
+        }
+
+        Assert.assertEquals(0, SchemaMigrator.migrate(connection));
+
+        Assert.assertEquals(1, count("select count(*) from message"));
+        Assert.assertEquals(SchemaMigrator.getLatestVersion(), count("select max(version) from schema_version"));
+    }
+
+    /**
+     * A database first built by SocialMedia.sql already has the full schema, and should be adopted without losing rows.
+     */
+    @Test
+    public void existingDatabaseIsAdoptedTest() throws Exception {
+        RunScript.execute(connection, new FileReader("src/main/resources/SocialMedia.sql"));
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("insert into account (username, password) values ('kept', 'password')");
+        }
+
+        SchemaMigrator.migrate(connection);
+
+        Assert.assertEquals(1, count("select count(*) from account"));
+        Assert.assertEquals(SchemaMigrator.getLatestVersion(), count("select count(*) from schema_version"));
+    }
+
+    /**
+     * Editing a script after it has been applied should stop startup rather than leave the schemas silently apart.
+     */
+    @Test(expected = SchemaMigrator.MigrationException.class)
+    public void changedMigrationIsRefusedTest() throws SQLException {
+        SchemaMigrator.migrate(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("update schema_version set checksum = 0 where version = 1");
+        }
+
+        SchemaMigrator.migrate(connection);
+    }
+}
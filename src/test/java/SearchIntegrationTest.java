@@ -0,0 +1,148 @@
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Integration tests for GET /messages/search and the word index behind it.
+ */
+public class SearchIntegrationTest {
+
+    private static final String[] TEXTS = {
+            "Coffee with friends",
+            "Rainy day, more coffee!",
+            "Reading about coffee and tea",
+            "Tea time",
+            "coffee FRIENDS forever"
+    };
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"searcher\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        for (int i = 0; i < TEXTS.length; i++) {
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + TEXTS[i]
+                            + "\", \"time_posted_epoch\": " + (1669947791 + i) + "}"))
+                    .header("Content-Type", "application/json")
+                    .build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build());
+    }
+
+    private List<Integer> search(String query) throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8));
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){})
+                .forEach(message -> ids.add(message.getMessage_id()));
+        return ids;
+    }
+
+    /**
+     * Every word must match, ignoring case and punctuation, and results come back newest first.
+     */
+    @Test
+    public void multiWordSearchTest() throws IOException, InterruptedException {
+        Assert.assertEquals(List.of(5, 3, 2, 1), search("coffee"));
+        Assert.assertEquals(List.of(5, 1), search("Friends, coffee"));
+        Assert.assertEquals(List.of(3), search("tea coffee"));
+        Assert.assertEquals(List.of(), search("coffee biscuits"));
+        Assert.assertEquals(List.of(), search("!?"));
+        Assert.assertEquals(400, get("/messages/search?q=%20").statusCode());
+        Assert.assertEquals(400, get("/messages/search").statusCode());
+    }
+
+    /**
+     * Following the next cursor should reach every match exactly once.
+     */
+    @Test
+    public void searchPaginationTest() throws IOException, InterruptedException {
+        List<Integer> seen = new ArrayList<>();
+        String path = "/messages/search?q=coffee&limit=3";
+        while (path != null) {
+            HttpResponse<String> response = get(path);
+            Assert.assertEquals(200, response.statusCode());
+            objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){})
+                    .forEach(message -> seen.add(message.getMessage_id()));
+            path = response.headers().firstValue(SocialMediaController.NEXT_CURSOR_HEADER)
+                    .map(cursor -> "/messages/search?q=coffee&limit=3&before=" + cursor)
+                    .orElse(null);
+        }
+
+        Assert.assertEquals(List.of(5, 3, 2, 1), seen);
+    }
+
+    /**
+     * Updates and deletes should be reflected in the index straight away.
+     */
+    @Test
+    public void searchFollowsUpdateAndDeleteTest() throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"coffee time\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2")).DELETE().build());
+
+        Assert.assertEquals(List.of(5, 4, 3, 1), search("coffee"));
+        Assert.assertEquals(List.of(3), search("tea"));
+    }
+
+    /**
+     * A new service should build its index from the messages already in the table.
+     */
+    @Test
+    public void indexIsRebuiltFromTableTest() {
+        List<Integer> ids = new ArrayList<>();
+        new MessageService().searchMessages("friends", Long.MAX_VALUE, Integer.MAX_VALUE, 10).getMessages()
+                .forEach(message -> ids.add(message.getMessage_id()));
+
+        Assert.assertEquals(List.of(5, 1), ids);
+    }
+}
@@ -0,0 +1,119 @@
+import Controller.SocialMediaController;
+import Model.Account;
+import Service.SessionService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Integration tests for the session tokens issued by /login and accepted by the message routes.
+ */
+public class SessionIntegrationTest {
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    String token;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+
+        post("/register", "{\"username\": \"session\", \"password\": \"password\"}", null);
+        post("/register", "{\"username\": \"other\", \"password\": \"password\"}", null);
+        HttpResponse<String> login = post("/login", "{\"username\": \"session\", \"password\": \"password\"}", null);
+        Assert.assertEquals(200, login.statusCode());
+        Assert.assertEquals("{\"account_id\":1,\"username\":\"session\",\"password\":\"password\"}", login.body());
+        token = login.headers().firstValue(SocialMediaController.SESSION_TOKEN_HEADER).orElseThrow();
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> post(String path, String body, String bearer)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if (bearer != null) {
+            request.header("Authorization", "Bearer " + bearer);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void postWithSessionTest() throws IOException, InterruptedException {
+        HttpResponse<String> response = post("/messages",
+                "{\"posted_by\":1, \"message_text\": \"with a session\", \"time_posted_epoch\": 1669947792}", token);
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("{\"message_id\":1,\"posted_by\":1,\"message_text\":\"with a session\","
+                + "\"time_posted_epoch\":1669947792}", response.body());
+    }
+
+    /**
+     * A session only lets its own account post.
+     */
+    @Test
+    public void postForAnotherAccountIsForbiddenTest() throws IOException, InterruptedException {
+        HttpResponse<String> response = post("/messages",
+                "{\"posted_by\":2, \"message_text\": \"not mine\", \"time_posted_epoch\": 1669947792}", token);
+
+        Assert.assertEquals(403, response.statusCode());
+    }
+
+    @Test
+    public void tamperedTokenIsRejectedTest() throws IOException, InterruptedException {
+        String forged = "2" + token.substring(token.indexOf('.'));
+        String body = "{\"posted_by\":2, \"message_text\": \"forged\", \"time_posted_epoch\": 1669947792}";
+
+        Assert.assertEquals(401, post("/messages", body, forged).statusCode());
+        Assert.assertEquals(401, post("/messages", body, "garbage").statusCode());
+        Assert.assertEquals(401, post("/messages/batch", "[" + body + "]", forged).statusCode());
+    }
+
+    @Test
+    public void expiredSessionIsRejectedTest() {
+        SessionService sessions = new SessionService("secret".getBytes(StandardCharsets.UTF_8), 0, 10);
+        String expired = sessions.createSession(new Account(1, "session", "password"));
+
+        Assert.assertThrows(SessionService.InvalidSessionException.class, () -> sessions.getSession(expired));
+        Assert.assertEquals(0, sessions.getSessionCount());
+    }
+
+    /**
+     * Past the session limit, each new login should end the oldest session and leave the newer ones alone.
+     */
+    @Test
+    public void oldestSessionIsEvictedAtLimitTest() {
+        SessionService sessions = new SessionService("secret".getBytes(StandardCharsets.UTF_8), 60000, 3);
+        String[] tokens = new String[5];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = sessions.createSession(new Account(i + 1, "session" + i, "password"));
+        }
+
+        Assert.assertEquals(3, sessions.getSessionCount());
+        Assert.assertThrows(SessionService.InvalidSessionException.class, () -> sessions.getSession(tokens[0]));
+        Assert.assertThrows(SessionService.InvalidSessionException.class, () -> sessions.getSession(tokens[1]));
+        for (int i = 2; i < tokens.length; i++) {
+            Assert.assertEquals(i + 1, sessions.getSession(tokens[i]).getAccountId());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageFeed;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Integration tests for the server-sent event feed at /messages/stream.
+ */
+public class StreamIntegrationTest {
+
+    MessageService messageService;
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService();
+        socialMediaController = new SocialMediaController(new AccountService(), messageService);
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+
+        for (String username : new String[] {"watched", "other"}) {
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username
+                            + "\", \"password\": \"password\"}"))
+                    .header("Content-Type", "application/json")
+                    .build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int postedBy, String text) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy + ", \"message_text\": \""
+                        + text + "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build());
+    }
+
+    /**
+     * A subscriber filtered to one account should receive that account's creates, updates and deletes as events.
+     */
+    @Test
+    public void filteredStreamReceivesEventsTest() throws Exception {
+        HttpResponse<Stream<String>> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?posted_by=1"))
+                .header("Accept", "text/event-stream")
+                .build(), HttpResponse.BodyHandlers.ofLines());
+        Assert.assertEquals(200, response.statusCode());
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> response.body().filter(line -> !line.isEmpty()).forEach(lines::add));
+        reader.setDaemon(true);
+        reader.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (messageService.getSubscriberCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        postMessage(2, "not watched");
+        postMessage(1, "watched post");
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}"))
+                .header("Content-Type", "application/json")
+                .build());
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2")).DELETE().build());
+
+        Assert.assertEquals("id: 2", lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("event: created", lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertTrue(lines.poll(5, TimeUnit.SECONDS).contains("\"message_text\":\"watched post\""));
+        Assert.assertEquals("id: 3", lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("event: updated", lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertTrue(lines.poll(5, TimeUnit.SECONDS).contains("\"message_text\":\"edited\""));
+        Assert.assertEquals("id: 4", lines.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("event: deleted", lines.poll(5, TimeUnit.SECONDS));
+        response.body().close();
+    }
+
+    /**
+     * Requests the stream cannot serve are refused before the event stream starts.
+     */
+    @Test
+    public void invalidStreamRequestTest() throws IOException, InterruptedException {
+        HttpResponse<String> badFilter = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?posted_by=someone"))
+                .header("Accept", "text/event-stream")
+                .build());
+        HttpResponse<String> notEventStream = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream"))
+                .build());
+
+        Assert.assertEquals(400, badFilter.statusCode());
+        Assert.assertEquals(406, notEventStream.statusCode());
+        Assert.assertEquals(0, messageService.getSubscriberCount());
+    }
+
+    /**
+     * Writers racing each other must still hand the feed their events in sequence order, or a client resuming from
+     * Last-Event-ID could skip or repeat one.
+     */
+    @Test
+    public void concurrentWritesArePublishedInSequenceTest() throws Exception {
+        int threads = 8;
+        int perThread = 25;
+        try (MessageFeed.Subscription subscription = messageService.subscribe(null)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        messageService.createMessage(new Message(1, "post " + thread + "-" + i, 1669947792L));
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get(30, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            long previous = 0;
+            for (int i = 0; i < threads * perThread; i++) {
+                MessageFeed.Event event = subscription.next(5, TimeUnit.SECONDS);
+                Assert.assertNotNull(event);
+                Assert.assertEquals(previous + 1, event.getSequence());
+                previous = event.getSequence();
+            }
+        }
+    }
+}